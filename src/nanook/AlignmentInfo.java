@@ -92,6 +92,14 @@ public class AlignmentInfo {
     public int getAlignmentSize() {
         return alignmentSize;
     }
+
+    /**
+     * Get alignment size, excluding insertion and deletion columns.
+     * @return alignment size minus indels, in bases
+     */
+    public int getAlignmentSizeMinusIndels() {
+        return alignmentSizeMinusIndels;
+    }
     
     /**
      * Get query identity.
@@ -163,6 +171,23 @@ public class AlignmentInfo {
         kCounts = c;
     }
     
+    /**
+     * Get number of kmer counts.
+     * @return number of counts
+     */
+    public int getNumberOfkCounts() {
+        return nk;
+    }
+    
+    /**
+     * Get one kmer count.
+     * @param i index of count
+     * @return count
+     */
+    public int getkCount(int i) {
+        return kCounts[i];
+    }
+    
     public String getkCounts() {
         String s="";
         
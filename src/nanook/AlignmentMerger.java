@@ -7,6 +7,8 @@
 
 package nanook;
 
+import java.util.Arrays;
+
 /**
  * Class to merge alignments
  * 
@@ -16,6 +18,7 @@ public class AlignmentMerger {
     private ReferenceSequence reference;
     private ReadSetStats overallStats;
     private NanoOKOptions options;
+    private NanoOKLog log;
     private int readLength;
     private int[] covered;
     private int deletionSize = 0;
@@ -37,6 +40,10 @@ public class AlignmentMerger {
     private int identicalBases = 0;
     private int alignmentSize = 0;
     private int alignmentSizeWithoutIndels = 0;
+    private PileupTable pileup = null;
+    private int[] pileupPositions = null;
+    private byte[] pileupEvents = null;
+    private int nPileupEvents = 0;
 
     // Bodge for speed - need to change way AlignmentInfo works
     int kSizes[] = {15, 17, 19, 21, 23, 25};
@@ -59,9 +66,18 @@ public class AlignmentMerger {
         
         covered = new int[readLength];
         
-        options.getLog().println("");
-        options.getLog().println("New AlignmentMerger");
-        options.getLog().println("");
+        pileup = reference.getStatsByType(type).getPileup();
+        if (pileup != null) {
+            pileupPositions = new int[1024];
+            pileupEvents = new byte[1024];
+        }
+        
+        log = options.getLog();
+        if (log.isLogging(NanoOKLog.LOG_DEBUG)) {
+            log.println(NanoOKLog.LOG_DEBUG, "");
+            log.println(NanoOKLog.LOG_DEBUG, "New AlignmentMerger");
+            log.println(NanoOKLog.LOG_DEBUG, "");
+        }
     }
 
     /**
@@ -83,6 +99,21 @@ public class AlignmentMerger {
         errorKmer = "";
     }    
     
+    /**
+     * Record a pileup event at a reference position.
+     * @param pos reference position
+     * @param event event type, e.g. PileupTable.MATCH
+     */
+    private void addPileupEvent(int pos, byte event) {
+        if (nPileupEvents == pileupPositions.length) {
+            pileupPositions = Arrays.copyOf(pileupPositions, nPileupEvents * 2);
+            pileupEvents = Arrays.copyOf(pileupEvents, nPileupEvents * 2);
+        }
+        pileupPositions[nPileupEvents] = pos;
+        pileupEvents[nPileupEvents] = event;
+        nPileupEvents++;
+    }
+    
     private void storePerfectKmerLength() {
         // Store perfect kmers
         if (currentPerfectKmerSize > 0) {
@@ -141,18 +172,22 @@ public class AlignmentMerger {
             System.exit(1);
         }
         
-        options.getLog().println("Merging new block");
-        options.getLog().println("    queryPos = "+queryPos);
-        options.getLog().println("      hitPos = "+hitPos);
-        options.getLog().println("   querySize = "+querySize);
-        options.getLog().println("     hitSize = "+hitSize);
+        if (log.isLogging(NanoOKLog.LOG_DEBUG)) {
+            log.println(NanoOKLog.LOG_DEBUG, "Merging new block");
+            log.println(NanoOKLog.LOG_DEBUG, "    queryPos = "+queryPos);
+            log.println(NanoOKLog.LOG_DEBUG, "      hitPos = "+hitPos);
+            log.println(NanoOKLog.LOG_DEBUG, "   querySize = "+querySize);
+            log.println(NanoOKLog.LOG_DEBUG, "     hitSize = "+hitSize);
+        }
          
         // Check for new block too far from current block
         if ((overallHitStart != -1) && (hitPos < overallHitStart)) {
             int remainingQuerySequence = a.getQuerySequenceSize() - (overallQueryEnd - overallQueryStart);
             int maximumDistance = remainingQuerySequence * 2;
             if ((overallHitStart - hitPos) > maximumDistance) {
-                options.getLog().println("WARNING: hitPos too far (>"+maximumDistance+") from overallHitStart ("+overallHitStart+")");
+                if (log.isLogging(NanoOKLog.LOG_INFO)) {
+                    log.println(NanoOKLog.LOG_INFO, "WARNING: hitPos too far (>"+maximumDistance+") from overallHitStart ("+overallHitStart+")");
+                }
                 mergeAlignment = false;
             }
         }
@@ -162,7 +197,9 @@ public class AlignmentMerger {
             int maximumDistance = remainingQuerySequence * 2;
  
             if ((hitPos - overallHitEnd) > maximumDistance) {
-                options.getLog().println("WARNING: hitPos too far from (>"+maximumDistance+") from overallHitEnd ("+overallHitEnd+")");
+                if (log.isLogging(NanoOKLog.LOG_INFO)) {
+                    log.println(NanoOKLog.LOG_INFO, "WARNING: hitPos too far from (>"+maximumDistance+") from overallHitEnd ("+overallHitEnd+")");
+                }
                 mergeAlignment = false;
             }
         }        
@@ -171,11 +208,15 @@ public class AlignmentMerger {
             // Store alignment size
             if ((overallQueryStart == -1) || (queryPos < overallQueryStart)) {
                 overallQueryStart = queryPos;
-                options.getLog().println("Modifying overallQueryStart = "+overallQueryStart);
+                if (log.isLogging(NanoOKLog.LOG_DEBUG)) {
+                    log.println(NanoOKLog.LOG_DEBUG, "Modifying overallQueryStart = "+overallQueryStart);
+                }
             }        
             if ((overallHitStart == -1) || (hitPos < overallHitStart)) {
                 overallHitStart = hitPos;
-                options.getLog().println("Modifying overallHitStart = "+overallHitStart);
+                if (log.isLogging(NanoOKLog.LOG_DEBUG)) {
+                    log.println(NanoOKLog.LOG_DEBUG, "Modifying overallHitStart = "+overallHitStart);
+                }
             }        
 
             // Expect these to be equal
@@ -203,8 +244,10 @@ public class AlignmentMerger {
                 }
             }
 
-            options.getLog().println("    loopFrom = "+loopFrom);        
-            options.getLog().println("      loopTo = "+loopTo);        
+            if (log.isLogging(NanoOKLog.LOG_DEBUG)) {
+                log.println(NanoOKLog.LOG_DEBUG, "    loopFrom = "+loopFrom);
+                log.println(NanoOKLog.LOG_DEBUG, "      loopTo = "+loopTo);
+            }
 
             for (int i=loopFrom; i<loopTo; i++) {
                 // If we've ventured into previously covered territory, break
@@ -225,6 +268,10 @@ public class AlignmentMerger {
                         storePerfectKmerLength();
                     }
 
+                    if (pileup != null) {
+                        addPileupEvent(hitPos, (byte)PileupTable.MATCH);
+                    }
+
                     // Mark this position and move on
                     identicalBases++;
                     covered[queryPos]= 1;
@@ -244,6 +291,9 @@ public class AlignmentMerger {
                         if (insertionSize == 0) {
                             checkStoreInsertionsOrDeletions();
                             errorKmer = currentKmer;
+                            if (pileup != null) {
+                                addPileupEvent(hitPos, (byte)PileupTable.INSERTION);
+                            }
                         }
 
                         // Keep track of insertion size
@@ -265,6 +315,10 @@ public class AlignmentMerger {
                         // Keep track of size
                         deletionSize++;
 
+                        if (pileup != null) {
+                            addPileupEvent(hitPos, (byte)PileupTable.DELETION);
+                        }
+
                         // Keep track of position
                         hitPos++;
                     }
@@ -280,6 +334,10 @@ public class AlignmentMerger {
                         // Store substitution
                         reference.getStatsByType(type).addSubstitutionError(errorKmer, hitSeq.charAt(i), querySeq.charAt(i), overallStats);
 
+                        if (pileup != null) {
+                            addPileupEvent(hitPos, (byte)PileupTable.MISMATCH);
+                        }
+
                         // Mark this position and move on
                         covered[queryPos] = 1;
                         queryPos++;
@@ -294,19 +352,30 @@ public class AlignmentMerger {
                 alignmentSize++;
             }
 
-            options.getLog().println("    queryPos = " + queryPos);
-            options.getLog().println("      hitPos = " + hitPos);
+            if (log.isLogging(NanoOKLog.LOG_DEBUG)) {
+                log.println(NanoOKLog.LOG_DEBUG, "    queryPos = " + queryPos);
+                log.println(NanoOKLog.LOG_DEBUG, "      hitPos = " + hitPos);
+            }
 
             if ((overallQueryEnd == -1) || (queryPos > overallQueryEnd)) {
                 overallQueryEnd = queryPos;
-                options.getLog().println("Modifying overallQueryEnd = "+overallQueryEnd);
+                if (log.isLogging(NanoOKLog.LOG_DEBUG)) {
+                    log.println(NanoOKLog.LOG_DEBUG, "Modifying overallQueryEnd = "+overallQueryEnd);
+                }
             }
             if ((overallHitEnd == -1) || (hitPos > overallHitEnd)) {
                 overallHitEnd = hitPos;
-                options.getLog().println("Modifying overallHitEnd = "+overallHitEnd);
+                if (log.isLogging(NanoOKLog.LOG_DEBUG)) {
+                    log.println(NanoOKLog.LOG_DEBUG, "Modifying overallHitEnd = "+overallHitEnd);
+                }
             }
 
             reference.getStatsByType(type).addCoverage(a.getHitStart(), a.getHitAlignmentSize());    
+
+            if ((pileup != null) && (nPileupEvents > 0)) {
+                pileup.addEvents(pileupPositions, pileupEvents, nPileupEvents, a.getQueryStrand().equals("-"));
+                nPileupEvents = 0;
+            }
         }
     }  
     
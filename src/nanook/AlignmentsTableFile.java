@@ -8,16 +8,48 @@
 package nanook;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents alignment summary file written by tool and used for graph plotting.
  * 
+ * Parser threads add lines to a batch, which is appended to the file by a
+ * single writer thread shared by all tables once it reaches BATCH_LINES, so
+ * parsers don't wait on file I/O and the file isn't opened once per read.
+ * Files are only held open while a batch is written, as there is a table per
+ * reference and type. Call flush before reading the file.
+ * 
+ * Optionally, alignments are also written to a columnar binary table (see
+ * ColumnarTableWriter), which is much smaller and can be read a column at a
+ * time with ColumnarTableReader.
+ * 
  * @author Richard Leggett
  */
 public class AlignmentsTableFile implements Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
+    private final static int BATCH_LINES = 1000;
+    private final static String ROW_FORMAT = "%s\t%s\t%.2f\t%d\t%d\t%s\t%d\t%s\t%d\t%d\t%s\t%d\t%d\t%d\t%.2f\t%.2f\t%d\t%.2f\t%.2f\t";
+    private final static String[] COLUMN_NAMES = {"Filename", "QueryName", "QueryGC", "QueryStart", "QueryBasesCovered", "QueryStrand", "QueryLength",
+                                                   "HitName", "HitStart", "HitBasesCovered", "HitStrand", "HitLength", "AlignmentSize", "IdenticalBases",
+                                                   "AlignmentPercentIdentity", "QueryPercentIdentity", "LongestPerfectKmer", "MeanPerfectKmer", "PercentQueryAligned",
+                                                   "nk15", "nk17", "nk19", "nk21", "nk23", "nk25"};
+    private final static byte S = ColumnarTableWriter.TYPE_STRING;
+    private final static byte I = ColumnarTableWriter.TYPE_INT;
+    private final static byte F = ColumnarTableWriter.TYPE_FLOAT;
+    private final static byte[] COLUMN_TYPES = {S, S, F, I, I, S, I, S, I, I, S, I, I, I, F, F, I, F, F, I, I, I, I, I, I};
+    private final static int N_VALUE_COLUMNS = 19;
+    private static ThreadPoolExecutor writer = null;
     private String filename;
     private transient PrintWriter pw = null;
+    private transient ColumnarTableWriter columns = null;
+    private transient ArrayList<String> batch = null;
+    private transient ArrayList<Object[]> rowBatch = null;
+    private transient Future<?> lastWrite = null;
     private int count = 0;
 
     /**
@@ -29,6 +61,18 @@ public class AlignmentsTableFile implements Serializable {
         writeHeader();
     }
     
+    /**
+     * Constructor.
+     * @param f filename of output file
+     * @param binary true to also write a columnar binary table, named as f with .bin instead of .txt
+     */
+    public AlignmentsTableFile(String f, boolean binary) {
+        this(f);
+        if (binary) {
+            columns = new ColumnarTableWriter(f.replaceAll("\\.txt$", "") + ".bin", COLUMN_NAMES, COLUMN_TYPES);
+        }
+    }
+    
     private synchronized void openFile(boolean append) {
         try {
             pw = new PrintWriter(new FileWriter(filename, append));
@@ -38,6 +82,127 @@ public class AlignmentsTableFile implements Serializable {
         }
     }
     
+    /**
+     * Get the writer thread, creating it if needed. It's a daemon thread, so
+     * it doesn't stop the JVM exiting.
+     * @return executor
+     */
+    private static synchronized ThreadPoolExecutor getWriter() {
+        if (writer == null) {
+            writer = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "AlignmentsTableFile writer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            writer.allowCoreThreadTimeOut(true);
+        }
+        
+        return writer;
+    }
+    
+    /**
+     * Append a batch of lines to the file, and rows to the binary table.
+     */
+    private static class BatchWriter implements Runnable {
+        private String filename;
+        private ArrayList<String> lines;
+        private ColumnarTableWriter columns;
+        private ArrayList<Object[]> rows;
+        
+        public BatchWriter(String f, ArrayList<String> l, ColumnarTableWriter c, ArrayList<Object[]> r) {
+            filename = f;
+            lines = l;
+            columns = c;
+            rows = r;
+        }
+        
+        public void run() {
+            try {
+                BufferedWriter bw = new BufferedWriter(new FileWriter(filename, true), 65536);
+                for (int i=0; i<lines.size(); i++) {
+                    bw.write(lines.get(i));
+                    bw.newLine();
+                }
+                bw.close();
+            } catch (IOException e) {
+                // Lines would be lost, so don't carry on as if the table were complete
+                System.out.println("AlignmentsTableFile exception");
+                e.printStackTrace();
+                System.exit(1);
+            }
+            
+            if ((columns != null) && (rows != null)) {
+                columns.appendBlock(rows);
+            }
+        }
+    }
+    
+    /**
+     * Hand current batch to the writer thread. Lock must be held, so batches
+     * are queued in order.
+     */
+    private void submitBatch() {
+        if ((batch != null) && (batch.size() > 0)) {
+            lastWrite = getWriter().submit(new BatchWriter(filename, batch, columns, rowBatch));
+            batch = null;
+            rowBatch = null;
+        }
+    }
+    
+    /**
+     * Add a line to the current batch.
+     * @param line line, without newline
+     * @param row values for the binary table if line is an alignment, otherwise null
+     */
+    private synchronized void addLine(String line, Object[] row) {
+        if (batch == null) {
+            batch = new ArrayList<String>(BATCH_LINES);
+        }
+        
+        batch.add(line);
+        
+        if (row != null) {
+            count++;
+            if (columns != null) {
+                if (rowBatch == null) {
+                    rowBatch = new ArrayList<Object[]>(BATCH_LINES);
+                }
+                rowBatch.add(row);
+            }
+        }
+        
+        if (batch.size() >= BATCH_LINES) {
+            submitBatch();
+        }
+    }
+    
+    /**
+     * Write out all lines added so far and wait for them to reach the file.
+     */
+    public synchronized void flush() {
+        submitBatch();
+        
+        if (lastWrite != null) {
+            try {
+                lastWrite.get();
+            } catch (Exception e) {
+                System.out.println("AlignmentsTableFile exception");
+                e.printStackTrace();
+            }
+            lastWrite = null;
+        }
+    }
+    
+    /**
+     * Flush before serializing, as batched lines aren't serialized.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        flush();
+        out.defaultWriteObject();
+    }
+    
     /**
      * Write header row to file.
      */
@@ -67,6 +232,35 @@ public class AlignmentsTableFile implements Serializable {
         pw.close();
     }
     
+    /**
+     * Make a row of the table, leaving room for the kmer counts.
+     * @param values values of the columns before the kmer counts
+     * @return row
+     */
+    private static Object[] makeRow(Object... values) {
+        Object[] row = new Object[COLUMN_NAMES.length];
+        System.arraycopy(values, 0, row, 0, N_VALUE_COLUMNS);
+        return row;
+    }
+    
+    /**
+     * Format an alignment line and add it to the batch.
+     * @param row row values, from makeRow
+     * @param ais AlignmentInfo holding the kmer counts
+     */
+    private void addAlignment(Object[] row, AlignmentInfo ais) {
+        String outputLine = String.format(ROW_FORMAT, row) + ais.getkCounts();
+        
+        if (columns != null) {
+            for (int i=N_VALUE_COLUMNS; i<row.length; i++) {
+                int k = i - N_VALUE_COLUMNS;
+                row[i] = k < ais.getNumberOfkCounts() ? ais.getkCount(k) : 0;
+            }
+        }
+        
+        addLine(outputLine, row);
+    }
+    
     /**
      * Write an alignment line.
      * @param alignmentFilename filename of alignment
@@ -74,8 +268,8 @@ public class AlignmentsTableFile implements Serializable {
      * @param queryLine query object
      * @param ais AlignmentInfo statistics
      */
-    public synchronized void writeAlignment(ReadSetStats stats, String alignmentFilename, MAFAlignmentLine hitLine, MAFAlignmentLine queryLine, AlignmentInfo ais) {
-        String outputLine = String.format("%s\t%s\t%.2f\t%d\t%d\t%s\t%d\t%s\t%d\t%d\t%s\t%d\t%d\t%d\t%.2f\t%.2f\t%d\t%.2f\t%.2f\t%s",
+    public void writeAlignment(ReadSetStats stats, String alignmentFilename, MAFAlignmentLine hitLine, MAFAlignmentLine queryLine, AlignmentInfo ais) {
+        Object[] row = makeRow(
                 alignmentFilename,
                 queryLine.getName(),
                 stats.getGC(alignmentFilename, ais.getQueryName()),
@@ -94,18 +288,13 @@ public class AlignmentsTableFile implements Serializable {
                 ais.getQueryId(),
                 ais.getLongestPerfectKmer(),
                 ais.getMeanPerfectKmer(),
-                ais.getPercentQueryAligned(),
-                ais.getkCounts());
-        
-        openFile(true);
-        pw.println(outputLine);
-        pw.close();
+                ais.getPercentQueryAligned());
         
-        count++;
+        addAlignment(row, ais);
     }
     
-    public synchronized void writeMergedAlignment(ReadSetStats stats, String alignmentFilename, AlignmentMerger merger, AlignmentInfo ais) {
-        String outputLine = String.format("%s\t%s\t%.2f\t%d\t%d\t%s\t%d\t%s\t%d\t%d\t%s\t%d\t%d\t%d\t%.2f\t%.2f\t%d\t%.2f\t%.2f\t%s",
+    public void writeMergedAlignment(ReadSetStats stats, String alignmentFilename, AlignmentMerger merger, AlignmentInfo ais) {
+        Object[] row = makeRow(
                 alignmentFilename,
                 ais.getQueryName(),
                 stats.getGC(alignmentFilename, ais.getQueryName()),
@@ -124,23 +313,16 @@ public class AlignmentsTableFile implements Serializable {
                 ais.getQueryId(),
                 ais.getLongestPerfectKmer(),
                 ais.getMeanPerfectKmer(),
-                ais.getPercentQueryAligned(),
-                ais.getkCounts());
-        
-        openFile(true);
-        pw.println(outputLine);
-        pw.close();
+                ais.getPercentQueryAligned());
         
-        count++;
+        addAlignment(row, ais);
     }    
     
     /**
      * Used when no alignment found for this query.
      * @param alignmentFilename - alignment filename
      */
-    public synchronized void writeNoAlignmentMessage(String alignmentFilename) {
-        openFile(true);
-        pw.println(alignmentFilename+"\tNO ALIGNMENTS");
-        pw.close();
+    public void writeNoAlignmentMessage(String alignmentFilename) {
+        addLine(alignmentFilename+"\tNO ALIGNMENTS", null);
     }
 }
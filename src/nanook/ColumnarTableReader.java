@@ -0,0 +1,274 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett
+ *
+ * Copyright 2015 The Genome Analysis Centre (TGAC)
+ */
+
+package nanook;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a binary table written by ColumnarTableWriter. Each get...Column call
+ * makes one pass through the file, decompressing only the requested column
+ * and skipping the others.
+ *
+ * For example, to get the identity of every alignment:
+ *   ColumnarTableReader r = new ColumnarTableReader("ref_2D_alignments.bin");
+ *   float[] identity = r.getFloatColumn("AlignmentPercentIdentity");
+ *
+ * @author Richard Leggett
+ */
+public class ColumnarTableReader {
+    private String filename;
+    private String[] names;
+    private byte[] types;
+
+    /**
+     * Constructor. Reads header.
+     * @param f filename
+     */
+    public ColumnarTableReader(String f) throws IOException {
+        filename = f;
+
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+        try {
+            readHeader(dis);
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * Read header, leaving stream at the first block.
+     * @param dis stream at start of file
+     */
+    private void readHeader(DataInputStream dis) throws IOException {
+        if (dis.readInt() != ColumnarTableWriter.MAGIC) {
+            throw new IOException("Not a NanoOK columnar table: " + filename);
+        }
+        int version = dis.readInt();
+        if (version != ColumnarTableWriter.VERSION) {
+            throw new IOException("Unsupported columnar table version " + version + ": " + filename);
+        }
+
+        int nColumns = dis.readInt();
+        names = new String[nColumns];
+        types = new byte[nColumns];
+        for (int i=0; i<nColumns; i++) {
+            names[i] = dis.readUTF();
+            types[i] = dis.readByte();
+        }
+    }
+
+    /**
+     * Get number of columns.
+     * @return number of columns
+     */
+    public int getNumberOfColumns() {
+        return names.length;
+    }
+
+    /**
+     * Get name of a column.
+     * @param c column index
+     * @return name
+     */
+    public String getColumnName(int c) {
+        return names[c];
+    }
+
+    /**
+     * Get type of a column.
+     * @param c column index
+     * @return ColumnarTableWriter.TYPE_INT, TYPE_FLOAT or TYPE_STRING
+     */
+    public byte getColumnType(int c) {
+        return types[c];
+    }
+
+    /**
+     * Get index of a named column.
+     * @param name column name
+     * @return index, or -1 if no such column
+     */
+    public int getColumnIndex(String name) {
+        for (int i=0; i<names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void skipFully(DataInputStream dis, long n) throws IOException {
+        while (n > 0) {
+            long s = dis.skip(n);
+            if (s <= 0) {
+                throw new EOFException("Truncated columnar table: " + filename);
+            }
+            n -= s;
+        }
+    }
+
+    /**
+     * Read and decompress one column from every block.
+     * @param c column index
+     * @param rowCounts filled in with number of rows in each block
+     * @return uncompressed values of each block
+     */
+    private ArrayList<byte[]> readColumnBlocks(int c, ArrayList<Integer> rowCounts) throws IOException {
+        ArrayList<byte[]> blocks = new ArrayList<byte[]>();
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 65536));
+        Inflater inflater = new Inflater();
+
+        try {
+            readHeader(dis);
+            while (true) {
+                int nRows;
+                try {
+                    nRows = dis.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                rowCounts.add(nRows);
+
+                for (int i=0; i<names.length; i++) {
+                    int rawSize = dis.readInt();
+                    int compressedSize = dis.readInt();
+                    if (i == c) {
+                        byte[] compressed = new byte[compressedSize];
+                        byte[] raw = new byte[rawSize];
+                        dis.readFully(compressed);
+                        inflater.reset();
+                        inflater.setInput(compressed);
+                        try {
+                            int n = 0;
+                            while ((n < rawSize) && !inflater.finished()) {
+                                n += inflater.inflate(raw, n, rawSize - n);
+                            }
+                        } catch (DataFormatException e) {
+                            throw new IOException("Corrupt block in " + filename, e);
+                        }
+                        blocks.add(raw);
+                    } else {
+                        skipFully(dis, compressedSize);
+                    }
+                }
+            }
+        } finally {
+            inflater.end();
+            dis.close();
+        }
+
+        return blocks;
+    }
+
+    /**
+     * Find a column, checking its type.
+     * @param name column name
+     * @param type expected type
+     * @return column index
+     */
+    private int findColumn(String name, byte type) throws IOException {
+        int c = getColumnIndex(name);
+
+        if (c < 0) {
+            throw new IOException("No column " + name + " in " + filename);
+        } else if (types[c] != type) {
+            throw new IOException("Column " + name + " in " + filename + " is not of the requested type");
+        }
+
+        return c;
+    }
+
+    private int sum(ArrayList<Integer> counts) {
+        int n = 0;
+        for (int i=0; i<counts.size(); i++) {
+            n += counts.get(i);
+        }
+        return n;
+    }
+
+    /**
+     * Get number of rows, without decompressing anything.
+     * @return number of rows
+     */
+    public int getNumberOfRows() throws IOException {
+        ArrayList<Integer> rowCounts = new ArrayList<Integer>();
+        readColumnBlocks(-1, rowCounts);
+        return sum(rowCounts);
+    }
+
+    /**
+     * Read an int column.
+     * @param name column name
+     * @return values, one per row
+     */
+    public int[] getIntColumn(String name) throws IOException {
+        ArrayList<Integer> rowCounts = new ArrayList<Integer>();
+        ArrayList<byte[]> blocks = readColumnBlocks(findColumn(name, ColumnarTableWriter.TYPE_INT), rowCounts);
+        int[] values = new int[sum(rowCounts)];
+        int r = 0;
+
+        for (int b=0; b<blocks.size(); b++) {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(blocks.get(b)));
+            for (int i=0; i<rowCounts.get(b); i++) {
+                values[r++] = dis.readInt();
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Read a float column.
+     * @param name column name
+     * @return values, one per row
+     */
+    public float[] getFloatColumn(String name) throws IOException {
+        ArrayList<Integer> rowCounts = new ArrayList<Integer>();
+        ArrayList<byte[]> blocks = readColumnBlocks(findColumn(name, ColumnarTableWriter.TYPE_FLOAT), rowCounts);
+        float[] values = new float[sum(rowCounts)];
+        int r = 0;
+
+        for (int b=0; b<blocks.size(); b++) {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(blocks.get(b)));
+            for (int i=0; i<rowCounts.get(b); i++) {
+                values[r++] = dis.readFloat();
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Read a string column.
+     * @param name column name
+     * @return values, one per row
+     */
+    public String[] getStringColumn(String name) throws IOException {
+        ArrayList<Integer> rowCounts = new ArrayList<Integer>();
+        ArrayList<byte[]> blocks = readColumnBlocks(findColumn(name, ColumnarTableWriter.TYPE_STRING), rowCounts);
+        String[] values = new String[sum(rowCounts)];
+        int r = 0;
+
+        for (int b=0; b<blocks.size(); b++) {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(blocks.get(b)));
+            for (int i=0; i<rowCounts.get(b); i++) {
+                values[r++] = dis.readUTF();
+            }
+        }
+
+        return values;
+    }
+}
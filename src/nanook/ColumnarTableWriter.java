@@ -0,0 +1,142 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett
+ *
+ * Copyright 2015 The Genome Analysis Centre (TGAC)
+ */
+
+package nanook;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a binary table stored by column, so readers can load only the
+ * columns they need. Use ColumnarTableReader to read it.
+ *
+ * The file is a header (magic, version, number of columns, then name and
+ * type of each column) followed by blocks of rows. Each block is the number
+ * of rows followed, for each column, by the uncompressed size, compressed
+ * size and deflated values. Values are big-endian ints, big-endian floats
+ * or modified UTF-8 strings. A block can be appended at any time, so the file
+ * is valid after every block.
+ *
+ * @author Richard Leggett
+ */
+public class ColumnarTableWriter {
+    public final static int MAGIC = 0x4E4B5442;
+    public final static int VERSION = 1;
+    public final static byte TYPE_INT = 1;
+    public final static byte TYPE_FLOAT = 2;
+    public final static byte TYPE_STRING = 3;
+    private String filename;
+    private String[] names;
+    private byte[] types;
+
+    /**
+     * Constructor. Creates file and writes header.
+     * @param f filename
+     * @param n column names
+     * @param t column types (TYPE_INT, TYPE_FLOAT or TYPE_STRING)
+     */
+    public ColumnarTableWriter(String f, String[] n, byte[] t) {
+        filename = f;
+        names = n;
+        types = t;
+
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename, false)));
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(names.length);
+            for (int i=0; i<names.length; i++) {
+                dos.writeUTF(names[i]);
+                dos.writeByte(types[i]);
+            }
+            dos.close();
+        } catch (IOException e) {
+            System.out.println("ColumnarTableWriter exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Get number of columns.
+     * @return number of columns
+     */
+    public int getNumberOfColumns() {
+        return names.length;
+    }
+
+    /**
+     * Encode one column of a block.
+     * @param rows rows of block
+     * @param c column index
+     * @return uncompressed values
+     */
+    private byte[] encodeColumn(ArrayList<Object[]> rows, int c) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(rows.size() * 8);
+        DataOutputStream dos = new DataOutputStream(bos);
+
+        for (int r=0; r<rows.size(); r++) {
+            Object v = rows.get(r)[c];
+            if (types[c] == TYPE_INT) {
+                dos.writeInt(((Number)v).intValue());
+            } else if (types[c] == TYPE_FLOAT) {
+                dos.writeFloat(((Number)v).floatValue());
+            } else {
+                dos.writeUTF(v.toString());
+            }
+        }
+        dos.close();
+
+        return bos.toByteArray();
+    }
+
+    /**
+     * Append a block of rows. Not thread safe - blocks should be appended by
+     * one thread.
+     * @param rows rows, each holding a value of the right type for every column
+     */
+    public void appendBlock(ArrayList<Object[]> rows) {
+        if (rows.size() == 0) {
+            return;
+        }
+
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename, true), 65536));
+            Deflater deflater = new Deflater();
+            byte[] buffer = new byte[65536];
+
+            dos.writeInt(rows.size());
+            for (int c=0; c<names.length; c++) {
+                byte[] raw = encodeColumn(rows, c);
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2);
+
+                deflater.reset();
+                deflater.setInput(raw);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, n);
+                }
+
+                dos.writeInt(raw.length);
+                dos.writeInt(compressed.size());
+                compressed.writeTo(dos);
+            }
+            deflater.end();
+            dos.close();
+        } catch (IOException e) {
+            System.out.println("ColumnarTableWriter exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -129,9 +129,9 @@ public class ComparisonReportWriter {
 
         for (int ou=0; ou<2; ou++) { 
             if (ou == 0) {
-                pw.println("\\subsection*{" + id + " " + NanoOKOptions.getTypeFromInt(type) + " Over-represented 5-mers}");
+                pw.println("\\subsection*{" + id + " " + NanoOKOptions.getTypeFromInt(type) + " Over-represented " + refSeq.getKmerTable().getKmerSize() + "-mers}");
             } else {
-                pw.println("\\subsection*{" + id + " " + NanoOKOptions.getTypeFromInt(type) + " Under-represented 5-mers}");
+                pw.println("\\subsection*{" + id + " " + NanoOKOptions.getTypeFromInt(type) + " Under-represented " + refSeq.getKmerTable().getKmerSize() + "-mers}");
             }
             
             pw.println("\\vspace{-3mm}");
@@ -144,20 +144,15 @@ public class ComparisonReportWriter {
             pw.println("Sample & 1 & 2 & 3 & 4 & 5 & 6 & 7 & 8 & 9 & 10 \\\\");
             pw.println("\\cline{1-11}");
             for (int i=0; i<sampleComparer.getNumberOfSamples(); i++) {
-                OverallStats os = sampleComparer.getSample(i);
-                ReferenceSequence rs = os.getStatsByType(type).getOptions().getReferences().getReferenceById(refSeq.getId());
-                rs.getStatsByType(type).sortKmerAbundance();
-                ArrayList<KmerAbundance> ka = rs.getStatsByType(type).getKmerAbundance();
+                String[] kmers;
+                if (ou == 0) {
+                    kmers = sampleComparer.getOverRepresentedKmers(refSeq.getId(), i);
+                } else {
+                    kmers = sampleComparer.getUnderRepresentedKmers(refSeq.getId(), i);
+                }
                 pw.print(sampleComparer.getSampleName(i).replaceAll("_", "\\\\_"));
                 for (int j=0; j<10; j++) {
-                    KmerAbundance ko;
-                    
-                    if (ou == 0) {
-                        ko = ka.get(j);
-                    } else {
-                        ko = ka.get(ka.size() - 1 - j);
-                    }
-                    pw.print(" & "+ko.getKmer());
+                    pw.print(" & " + (j < kmers.length ? kmers[j] : ""));
                 }
                 pw.println(" \\\\");            
             }
@@ -0,0 +1,330 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett
+ *
+ * Copyright 2015 The Genome Analysis Centre (TGAC)
+ */
+
+package nanook;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Hashtable;
+
+/**
+ * Compact store of the comparison lines already derived for each sample, kept
+ * in the comparison directory. When compare is re-run with more samples, the
+ * stored samples aren't reloaded; a sample is only reloaded if its summary
+ * file has changed since it was stored.
+ *
+ * The file is a header (magic, version, read types, report type, kmer size
+ * and reference list) followed by one record per sample, in sample list
+ * order.
+ *
+ * @author Richard Leggett
+ */
+public class ComparisonStore {
+    public final static String FILENAME = "comparison_store.bin";
+    public final static int MAGIC = 0x4E4B4353;
+    public final static int VERSION = 2;
+    private String filename;
+    private int typesMask = 0;
+    private int specifiedType = 0;
+    private int kmerSize = 0;
+    private ArrayList<String[]> referenceList = new ArrayList<String[]>();
+    private ArrayList<Entry> entries = new ArrayList<Entry>();
+    private Hashtable<String,Entry> entriesByKey = new Hashtable<String,Entry>();
+    private DataOutputStream dos = null;
+
+    /**
+     * Comparison lines and report kmers for one sample.
+     */
+    public static class Entry {
+        private String dir;
+        private String name;
+        private long lastModified;
+        private String[] comparisonLines = new String[3];
+        private String[] mapSummaryLines = new String[3];
+        private String[][] overKmers;
+        private String[][] underKmers;
+
+        public Entry(String d, String n, long m, int nRefs) {
+            dir = d;
+            name = n;
+            lastModified = m;
+            overKmers = new String[nRefs][];
+            underKmers = new String[nRefs][];
+        }
+
+        public String getKey() {
+            return dir + "\t" + name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setLines(int type, String comparison, String mapSummary) {
+            comparisonLines[type] = comparison;
+            mapSummaryLines[type] = mapSummary;
+        }
+
+        public String getComparisonLine(int type) {
+            return comparisonLines[type];
+        }
+
+        public String getMapSummaryLine(int type) {
+            return mapSummaryLines[type];
+        }
+
+        public void setKmers(int ref, String[] over, String[] under) {
+            overKmers[ref] = over;
+            underKmers[ref] = under;
+        }
+
+        public String[] getOverRepresentedKmers(int ref) {
+            return overKmers[ref];
+        }
+
+        public String[] getUnderRepresentedKmers(int ref) {
+            return underKmers[ref];
+        }
+    }
+
+    /**
+     * Constructor
+     * @param options NanoOKOptions object
+     */
+    public ComparisonStore(NanoOKOptions options) {
+        filename = options.getComparisonDir() + File.separator + FILENAME;
+        specifiedType = options.getSpecifiedType();
+        for (int type=0; type<3; type++) {
+            if (options.isProcessingReadType(type)) {
+                typesMask |= 1 << type;
+            }
+        }
+    }
+
+    /**
+     * Get time a sample's summary was last modified.
+     * @param dir sample directory
+     * @return time, or 0 if it doesn't exist
+     */
+    public static long getSummaryModified(String dir) {
+        return new File(dir + File.separator + "analysis" + File.separator + SampleSummaryFile.FILENAME).lastModified();
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] s) throws IOException {
+        out.writeInt(s.length);
+        for (int i=0; i<s.length; i++) {
+            out.writeUTF(s[i]);
+        }
+    }
+
+    /**
+     * Write a string which may be over the 64KB limit of writeUTF, e.g. a
+     * line with a column per reference.
+     */
+    private static void writeLongString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readLongString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] s = new String[in.readInt()];
+        for (int i=0; i<s.length; i++) {
+            s[i] = in.readUTF();
+        }
+        return s;
+    }
+
+    /**
+     * Read the store, if there is one made with the same read types.
+     * @return true if read
+     */
+    public boolean read() {
+        if (!new File(filename).exists()) {
+            return false;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+            try {
+                if ((in.readInt() != MAGIC) || (in.readInt() != VERSION) ||
+                    (in.readInt() != typesMask) || (in.readInt() != specifiedType)) {
+                    return false;
+                }
+
+                kmerSize = in.readInt();
+                int nRefs = in.readInt();
+                for (int i=0; i<nRefs; i++) {
+                    referenceList.add(new String[] {in.readUTF(), in.readUTF(), Integer.toString(in.readInt())});
+                }
+
+                while (true) {
+                    String dir;
+                    try {
+                        dir = in.readUTF();
+                    } catch (EOFException e) {
+                        break;
+                    }
+
+                    Entry e = new Entry(dir, in.readUTF(), in.readLong(), nRefs);
+                    for (int type=0; type<3; type++) {
+                        if ((typesMask & (1 << type)) != 0) {
+                            e.setLines(type, readLongString(in), readLongString(in));
+                        }
+                    }
+                    for (int r=0; r<nRefs; r++) {
+                        e.setKmers(r, readStrings(in), readStrings(in));
+                    }
+                    entries.add(e);
+                    entriesByKey.put(e.getKey(), e);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Warning: can't read comparison store, all samples will be reloaded.");
+            entries.clear();
+            entriesByKey.clear();
+            referenceList.clear();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Get a stored sample, if its summary hasn't changed since it was stored.
+     * @param dir sample directory
+     * @param name sample name
+     * @return Entry or null
+     */
+    public Entry getEntry(String dir, String name) {
+        Entry e = entriesByKey.get(dir + "\t" + name);
+
+        if ((e != null) && (e.lastModified == getSummaryModified(dir))) {
+            return e;
+        }
+
+        return null;
+    }
+
+    /**
+     * Check the store was made with the same (unchanged) first sample, so
+     * its reference list and lines are valid for this comparison.
+     * @param dir sample directory
+     * @param name sample name
+     * @return true if first sample matches
+     */
+    public boolean isFirstSample(String dir, String name) {
+        return (entries.size() > 0) && (getEntry(dir, name) == entries.get(0));
+    }
+
+    /**
+     * Count how many samples at the start of the list are stored, in the same
+     * order. If that's every stored sample, new samples can be appended.
+     * @param dirs sample directories
+     * @param names sample names
+     * @return number of samples, or 0 if not every stored sample matched
+     */
+    public int getAppendablePrefix(ArrayList<String> dirs, ArrayList<String> names) {
+        if (entries.size() > dirs.size()) {
+            return 0;
+        }
+
+        for (int i=0; i<entries.size(); i++) {
+            if (getEntry(dirs.get(i), names.get(i)) != entries.get(i)) {
+                return 0;
+            }
+        }
+
+        return entries.size();
+    }
+
+    /**
+     * Build a References object (without stats) from the stored reference list.
+     * @param o NanoOKOptions object
+     * @return References object
+     */
+    public References getReferences(NanoOKOptions o) {
+        References references = new References(o);
+
+        for (int i=0; i<referenceList.size(); i++) {
+            String[] r = referenceList.get(i);
+            references.addReference(new ReferenceSequence(r[0], Integer.parseInt(r[2]), r[1], kmerSize, false));
+        }
+
+        return references;
+    }
+
+    /**
+     * Start writing a new store. Written to a temporary file, which replaces
+     * the store on close.
+     * @param sortedRefs references, in the order used for entries
+     */
+    public void open(ArrayList<ReferenceSequence> sortedRefs) throws IOException {
+        dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename + ".tmp")));
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(typesMask);
+        dos.writeInt(specifiedType);
+        dos.writeInt(sortedRefs.size() > 0 ? sortedRefs.get(0).getKmerTable().getKmerSize() : 0);
+        dos.writeInt(sortedRefs.size());
+        for (int i=0; i<sortedRefs.size(); i++) {
+            dos.writeUTF(sortedRefs.get(i).getId());
+            dos.writeUTF(sortedRefs.get(i).getName());
+            dos.writeInt(sortedRefs.get(i).getSize());
+        }
+    }
+
+    /**
+     * Write a sample to the new store.
+     * @param e sample Entry
+     */
+    public void write(Entry e) throws IOException {
+        dos.writeUTF(e.dir);
+        dos.writeUTF(e.name);
+        dos.writeLong(e.lastModified);
+        for (int type=0; type<3; type++) {
+            if ((typesMask & (1 << type)) != 0) {
+                writeLongString(dos, e.comparisonLines[type]);
+                writeLongString(dos, e.mapSummaryLines[type]);
+            }
+        }
+        for (int r=0; r<e.overKmers.length; r++) {
+            writeStrings(dos, e.overKmers[r]);
+            writeStrings(dos, e.underKmers[r]);
+        }
+    }
+
+    /**
+     * Finish writing the new store.
+     */
+    public void close() throws IOException {
+        dos.close();
+
+        File f = new File(filename);
+        f.delete();
+        if (!new File(filename + ".tmp").renameTo(f)) {
+            throw new IOException("Couldn't rename " + filename + ".tmp");
+        }
+    }
+}
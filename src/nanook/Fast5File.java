@@ -84,7 +84,7 @@ public class Fast5File {
         // Old format files did not have separate Basecall_1D section
         if ((highestBasecall1D == -1) && (highestBasecall2D == -1)) {
             isCorrupt = true;
-            log.println("Error: couldn't find Basecall_1D or Basecall_2D in "+filename);
+            log.println(NanoOKLog.LOG_ERROR, "Error: couldn't find Basecall_1D or Basecall_2D in "+filename);
         } else if ((highestBasecall1D == -1) && (highestBasecall2D >= 0)) {
             oldFormat = true;
             highestIndex = highestBasecall2D;
@@ -92,7 +92,7 @@ public class Fast5File {
             if ((highestBasecall1D >=0) && (highestBasecall2D >=0)) {
                 if (highestBasecall1D != highestBasecall2D) {
                     isCorrupt = true;
-                    log.println("Error: Basecall_1D and Basecall_2D indicies not the same in "+filename);
+                    log.println(NanoOKLog.LOG_ERROR, "Error: Basecall_1D and Basecall_2D indicies not the same in "+filename);
                 }
             }
 
@@ -190,7 +190,7 @@ public class Fast5File {
                 index = highestIndex;
             } else {
                 if (index > highestIndex) {
-                    log.println("Error: index higher than highest Basecall available");
+                    log.println(NanoOKLog.LOG_ERROR, "Error: index higher than highest Basecall available");
                     isCorrupt = true;
                 }            
             }
@@ -242,6 +242,61 @@ public class Fast5File {
         return ff;
     }
     
+    /**
+     * Get the start time of the read, from the start_time and sampling_rate
+     * attributes.
+     * @return start time in seconds since the start of the run, or -1 if not available
+     */
+    public long getStartTime() {
+        Pattern readPattern = Pattern.compile("^(/Raw|/Analyses/EventDetection_\\d+)/Reads/Read_\\d+$");
+        String readGroup = null;
+        long startTime = -1;
+        double samplingRate = -1;
+
+        for (String g : groups) {
+            if (readPattern.matcher(g).find()) {
+                readGroup = g;
+                break;
+            }
+        }
+
+        if ((readGroup == null) || (!groups.contains("/UniqueGlobalKey/channel_id"))) {
+            return -1;
+        }
+
+        ProcessLogger pl = new ProcessLogger();
+        ArrayList<String> response = pl.getCommandOutput("h5dump -a "+readGroup+"/start_time -a /UniqueGlobalKey/channel_id/sampling_rate "+filename, true, true);
+        Pattern valuePattern = Pattern.compile("\\(0\\): \"?([0-9.eE+-]+)");
+        String attribute = null;
+
+        for (int i=0; i<response.size(); i++) {
+            String s = response.get(i).trim();
+            if (s.startsWith("ATTRIBUTE")) {
+                attribute = s;
+            } else if (attribute != null) {
+                Matcher m = valuePattern.matcher(s);
+                if (m.find()) {
+                    try {
+                        if (attribute.contains("start_time")) {
+                            startTime = (long)Double.parseDouble(m.group(1));
+                        } else if (attribute.contains("sampling_rate")) {
+                            samplingRate = Double.parseDouble(m.group(1));
+                        }
+                    } catch (NumberFormatException e) {
+                        log.println("Warning: can't parse "+attribute+" in "+filename);
+                    }
+                    attribute = null;
+                }
+            }
+        }
+
+        if ((startTime < 0) || (samplingRate <= 0)) {
+            return -1;
+        }
+
+        return (long)(startTime / samplingRate);
+    }
+    
     /**
      * Print list of groups
      */
@@ -17,6 +17,7 @@ public class FastAQFile {
     private String id;
     private String sequence;
     private String qualities;
+    private String comment = null;
     
     /**
      * Constructor
@@ -30,6 +31,22 @@ public class FastAQFile {
         qualities = q;
     }
     
+    /**
+     * Set comment, written after the id in the header
+     * @param c comment, e.g. start_time=1234
+     */
+    public void setComment(String c) {
+        comment = c;
+    }
+    
+    /**
+     * Get header line, without the initial @ or >
+     * @return header
+     */
+    private String getHeader() {
+        return (comment == null) ? id : (id + " " + comment);
+    }
+    
     /**
      * Write as FASTQ file
      * @param filename output filename
@@ -40,7 +57,7 @@ public class FastAQFile {
         try {
             pw = new PrintWriter(new FileWriter(filename));
             pw.print("@");
-            pw.println(id);
+            pw.println(getHeader());
             pw.println(sequence);
             pw.println("+");
             pw.println(qualities);
@@ -62,7 +79,7 @@ public class FastAQFile {
         try {
             pw = new PrintWriter(new FileWriter(filename));
             pw.print(">");
-            pw.println(id);
+            pw.println(getHeader());
             pw.println(sequence);
             pw.close();            
         } catch (IOException e) {
@@ -8,10 +8,17 @@
 package nanook;
 
 import java.io.Serializable;
-import java.util.*;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
- * Class to store kmer motif statistics.
+ * Class to store kmer motif statistics. Motifs are 2-bit encoded and counted
+ * in a dense array of 4^k counts, which is safe to update from parser threads
+ * without locking.
  * 
  * @author Richard Leggett
  */
@@ -20,9 +27,8 @@ public class KmerMotifStatistic implements Serializable {
     public final static int TYPE_TOP = 1;
     public final static int TYPE_BOTTOM = 2;
     private int kSize;
-    private Hashtable<String, Integer> motifs = new Hashtable();
-    private Hashtable<String, Double> motifsPercent = new Hashtable();
-    private int totalCount = 0;
+    private AtomicIntegerArray motifs;
+    private AtomicInteger totalCount = new AtomicInteger(0);
     private int[][] baseCounts;
     
     /**
@@ -31,75 +37,100 @@ public class KmerMotifStatistic implements Serializable {
      */
     public KmerMotifStatistic(int s) {
         kSize = s;
+        motifs = new AtomicIntegerArray(1 << (2 * kSize));
         baseCounts = new int[4][kSize];
     }
     
+    /**
+     * Add a motif to store.
+     * @param code 2-bit encoded motif (see KmerTable.encode)
+     */
+    public void addMotif(int code) {
+        motifs.incrementAndGet(code);
+        totalCount.incrementAndGet();
+    }
+    
     /**
      * Add a motif to store.
      * @param kmer motif to store
      */
     public void addMotif(String kmer) {
-        Integer currentCount = motifs.get(kmer);
+        long code = KmerTable.encode(kmer);
         
-        if (currentCount == null) {
-            currentCount = new Integer(1);
-        } else {
-            currentCount++;
+        if (code >= 0) {
+            addMotif((int)code);
         }
-        
-        motifs.put(kmer, currentCount);
-        
-        totalCount++;
-        
-        //System.out.println("Adding motif "+kmer+" to size "+kSize);
+    }
+    
+    /**
+     * Add counts from another statistic of the same kmer size.
+     * @param m statistic to merge in
+     */
+    public void merge(KmerMotifStatistic m) {
+        for (int i=0; i<motifs.length(); i++) {
+            motifs.addAndGet(i, m.motifs.get(i));
+        }
+        totalCount.addAndGet(m.getTotalMotifCount());
     }
     
     /**
      * Parse motif, updating count of bases seen at each position.
-     * @param motif - kmer motif
+     * @param code - 2-bit encoded motif
      * @param count - count of number of times seen
      */
-    private void updateBaseCounts(String motif, int count) {
-        for (int i=0; i<motif.length(); i++) {
-            switch(motif.charAt(i)) {
-                case 'A': baseCounts[0][i]+=count; break;
-                case 'C': baseCounts[1][i]+=count; break;
-                case 'G': baseCounts[2][i]+=count; break;
-                case 'T': baseCounts[3][i]+=count; break;
-            }
+    private void updateBaseCounts(int code, int count) {
+        for (int i=kSize-1; i>=0; i--) {
+            baseCounts[code & 3][i] += count;
+            code >>>= 2;
         }
     }
     
     /**
-     * Calculate percent each motif has been seen.
+     * Get codes of all motifs seen, most common first. Ties are in code order.
+     * @return array of motif codes
      */
-    public void calculateMotifs() {
-        Set<String> keys = motifs.keySet();
+    private int[] getSortedCodes() {
+        int n = 0;
         
-        for(String motif : keys) {
-            int count = motifs.get(motif);
-            double percent = (100.0 * (double)count) / (double)totalCount;
-            motifsPercent.put(motif, percent);
-            //updateBaseCounts(motif, count);
+        for (int i=0; i<motifs.length(); i++) {
+            if (motifs.get(i) > 0) {
+                n++;
+            }
         }
+
+        // Pack count and inverted code into one long so a primitive sort orders both
+        long[] packed = new long[n];
+        n = 0;
+        for (int i=0; i<motifs.length(); i++) {
+            int count = motifs.get(i);
+            if ((count > 0) && (n < packed.length)) {
+                packed[n++] = ((long)count << 32) | (~i & 0xFFFFFFFFL);
+            }
+        }
+        
+        Arrays.sort(packed, 0, n);
+        
+        int[] codes = new int[n];
+        for (int i=0; i<n; i++) {
+            codes[i] = ~(int)packed[n - 1 - i];
+        }
+        
+        return codes;
     }
     
     /**
      * Update motif base counts for top 10 motifs
      */
     public void calculateTopBaseCounts() {
-        ArrayList<Map.Entry<String, Integer>> list = getSortedMotifCounts();
+        int[] codes = getSortedCodes();
 
-        if (list.size() < 10) {
+        if (codes.length < 10) {
             System.out.println("Error: motif list smaller than 10");
             return;
         }
         
         for (int i=0; i<10; i++) {
-            if (i < list.size()) {
-                String motif = list.get(i).getKey();
-                updateBaseCounts(motif, list.get(i).getValue());
-            }
+            updateBaseCounts(codes[i], motifs.get(codes[i]));
         }
     }
 
@@ -107,21 +138,18 @@ public class KmerMotifStatistic implements Serializable {
      * Update motif bases counts for bottom 10 motifs
      */
     public void calculateBottomBaseCounts() {
-        ArrayList<Map.Entry<String, Integer>> list = getSortedMotifCounts();
+        int[] codes = getSortedCodes();
         
-        if (list.size() < 10) {
+        if (codes.length < 10) {
             System.out.println("Error: motif list smaller than 10");
             return;
         }
         
         for (int i=0; i<10; i++) {
-            if (i >= 0) {
-                String motif = list.get(list.size() - 1 - i).getKey();
-                updateBaseCounts(motif, list.get(list.size() - 1 - i).getValue());
-            }
+            int code = codes[codes.length - 1 - i];
+            updateBaseCounts(code, motifs.get(code));
         }
     }
-
     /**
      * Write a top 10 or bottom 10 logo image.
      * @param type TYPE_TOP for Top 10 or TYPE_BOTTOM for bottom 10
@@ -151,12 +179,12 @@ public class KmerMotifStatistic implements Serializable {
      * @return sorted motifs
      */
     public ArrayList<Map.Entry<String, Integer>> getSortedMotifCounts() {
-        ArrayList<Map.Entry<String, Integer>>list = new ArrayList(motifs.entrySet());
+        int[] codes = getSortedCodes();
+        ArrayList<Map.Entry<String, Integer>> list = new ArrayList<Map.Entry<String, Integer>>(codes.length);
         
-        Collections.sort(list, new Comparator<Map.Entry<String, Integer>>() {
-            public int compare(Map.Entry<String, Integer> o1, Map.Entry<String, Integer> o2){
-                return o2.getValue().compareTo(o1.getValue());
-        }});        
+        for (int i=0; i<codes.length; i++) {
+            list.add(new AbstractMap.SimpleImmutableEntry<String, Integer>(KmerTable.decode(codes[i], kSize), motifs.get(codes[i])));
+        }
 
         return list;
     }
@@ -166,26 +194,17 @@ public class KmerMotifStatistic implements Serializable {
      * @return sorted motifs
      */
     public ArrayList<Map.Entry<String, Double>> getSortedMotifPercentages() {
-        if (motifsPercent.size() == 0) {
-            calculateMotifs();
-        }
-                
-        ArrayList<Map.Entry<String, Double>>list = new ArrayList(motifsPercent.entrySet());
+        int[] codes = getSortedCodes();
+        ArrayList<Map.Entry<String, Double>> list = new ArrayList<Map.Entry<String, Double>>(codes.length);
+        double total = (double)totalCount.get();
         
-        Collections.sort(list, new Comparator<Map.Entry<String, Double>>() {
-            public int compare(Map.Entry<String, Double> o1, Map.Entry<String, Double> o2){
-                return o2.getValue().compareTo(o1.getValue());
-        }});        
-
-        //for (int i=1; i<=10; i++) {
-        //    if (list.size() >= i) {
-        //        System.out.println(i + ". " + list.get(i-1).getKey() + "\t" + list.get(i-1).getValue());
-        //    }
-        //}        
+        for (int i=0; i<codes.length; i++) {
+            double percent = (100.0 * (double)motifs.get(codes[i])) / total;
+            list.add(new AbstractMap.SimpleImmutableEntry<String, Double>(KmerTable.decode(codes[i], kSize), percent));
+        }
         
         return list;
     }    
-    
     /**
      * Write motif counts to stdout.
      */
@@ -206,6 +225,6 @@ public class KmerMotifStatistic implements Serializable {
      * @return total motif count
      */
     public int getTotalMotifCount() {
-        return totalCount;
+        return totalCount.get();
     }
 }
@@ -1,75 +1,341 @@
 /*
  * Program: NanoOK
  * Author:  Richard M. Leggett
- * 
+ *
  * Copyright 2015 The Genome Analysis Centre (TGAC)
  */
 
 package nanook;
 
 import java.io.Serializable;
-import java.util.Hashtable;
-import java.util.Set;
+import java.util.Arrays;
 
 /**
- * KmerTable used for 5-mer comparison
- * 
+ * KmerTable used for kmer comparison. Kmers are 2-bit encoded (A=0, C=1, G=2, T=3)
+ * and counted either in a dense array of 4^k counts, for small k, or in an
+ * open-addressing table of encoded kmers, for larger k. A table is not
+ * thread-safe - each worker should count into its own table and merge.
+ *
  * @author Richard Leggett
  */
 public class KmerTable implements Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
+    public final static int MAX_KMER_SIZE = 31;
+    public final static int MAX_DENSE_KMER_SIZE = 6;
+    private final static long EMPTY = -1L;
     private int kmerSize = 5;
-    private Hashtable<String, Integer> counts = new Hashtable();
-   
+    private long mask;
+    private int[] denseCounts = null;
+    private long[] keys = null;
+    private int[] values = null;
+    private int shift = 0;
+    private int nKeys = 0;
+    private long total = 0;
+
+    /**
+     * Constructor
+     * @param k kmer size
+     */
     public KmerTable(int k) {
+        if ((k < 1) || (k > MAX_KMER_SIZE)) {
+            System.out.println("Error: kmer size must be between 1 and " + MAX_KMER_SIZE);
+            System.exit(1);
+        }
+
         kmerSize = k;
+        mask = (1L << (2 * k)) - 1;
+
+        if (k <= MAX_DENSE_KMER_SIZE) {
+            denseCounts = new int[1 << (2 * k)];
+        } else {
+            keys = new long[1024];
+            values = new int[1024];
+            Arrays.fill(keys, EMPTY);
+            setShift();
+        }
+    }
+
+    /**
+     * Tracks the encoding of the last k bases seen, so a sequence can be fed
+     * in pieces (e.g. line by line from a FASTA file).
+     */
+    public static class RollingEncoder {
+        private long code = 0;
+        private int validBases = 0;
+
+        /**
+         * Start a new sequence.
+         */
+        public void reset() {
+            code = 0;
+            validBases = 0;
+        }
+    }
+
+    /**
+     * Get 2-bit code for a base.
+     * @param c base
+     * @return code, or -1 for anything other than A, C, G or T
+     */
+    public static int encodeBase(char c) {
+        switch(c) {
+            case 'A': case 'a': return 0;
+            case 'C': case 'c': return 1;
+            case 'G': case 'g': return 2;
+            case 'T': case 't': return 3;
+            default: return -1;
+        }
+    }
+
+    /**
+     * Encode a kmer string.
+     * @param kmer kmer to encode
+     * @return code, or -1 if the kmer contains a base other than A, C, G or T
+     */
+    public static long encode(String kmer) {
+        long code = 0;
+
+        for (int i=0; i<kmer.length(); i++) {
+            int b = encodeBase(kmer.charAt(i));
+            if (b < 0) {
+                return -1;
+            }
+            code = (code << 2) | b;
+        }
+
+        return code;
+    }
+
+    /**
+     * Decode a kmer.
+     * @param code 2-bit encoded kmer
+     * @param k kmer size
+     * @return kmer String
+     */
+    public static String decode(long code, int k) {
+        char[] bases = new char[k];
+
+        for (int i=k-1; i>=0; i--) {
+            bases[i] = "ACGT".charAt((int)(code & 3));
+            code >>>= 2;
+        }
+
+        return new String(bases);
+    }
+
+    /**
+     * Set shift so slot uses the top log2(table size) bits of the hash.
+     */
+    private void setShift() {
+        shift = 64 - Integer.numberOfTrailingZeros(keys.length);
+    }
+
+    private int slot(long code) {
+        long h = code * 0x9E3779B97F4A7C15L;
+        return (int)(h >>> shift);
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(keys, EMPTY);
+        setShift();
+
+        for (int i=0; i<oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int s = slot(oldKeys[i]);
+                while (keys[s] != EMPTY) {
+                    s = (s + 1) & (keys.length - 1);
+                }
+                keys[s] = oldKeys[i];
+                values[s] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Add to the count of an encoded kmer.
+     * @param code 2-bit encoded kmer
+     * @param n amount to add
+     */
+    public void countCode(long code, int n) {
+        total += n;
+
+        if (denseCounts != null) {
+            denseCounts[(int)code] += n;
+        } else {
+            int s = slot(code);
+            while ((keys[s] != EMPTY) && (keys[s] != code)) {
+                s = (s + 1) & (keys.length - 1);
+            }
+
+            if (keys[s] == EMPTY) {
+                keys[s] = code;
+                nKeys++;
+                values[s] = n;
+                if (nKeys * 2 > keys.length) {
+                    resize();
+                }
+            } else {
+                values[s] += n;
+            }
+        }
     }
-    
-    public synchronized void countKmer(String kmer) {
-        int count = 0;
-        
-        if (counts.containsKey(kmer)) {
-            count = counts.get(kmer);
+
+    /**
+     * Count a single kmer.
+     * @param kmer kmer to count
+     */
+    public void countKmer(String kmer) {
+        long code = encode(kmer);
+
+        if (code >= 0) {
+            countCode(code, 1);
         }
-        
-        count++;
-        
-        counts.put(kmer, count);
     }
-    
+
+    /**
+     * Count all kmers in a piece of sequence, carrying on from the state in the
+     * encoder. Kmers containing bases other than A, C, G or T are skipped.
+     * @param e encoder holding the last k-1 bases seen
+     * @param seq sequence to count
+     */
+    public void countKmers(RollingEncoder e, CharSequence seq) {
+        for (int i=0; i<seq.length(); i++) {
+            int b = encodeBase(seq.charAt(i));
+            if (b < 0) {
+                e.reset();
+            } else {
+                e.code = ((e.code << 2) | b) & mask;
+                if (++e.validBases >= kmerSize) {
+                    countCode(e.code, 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Count all kmers in a sequence.
+     * @param seq sequence to count
+     */
+    public void countKmers(CharSequence seq) {
+        countKmers(new RollingEncoder(), seq);
+    }
+
+    /**
+     * Add counts from another table of the same kmer size.
+     * @param t table to merge in
+     */
+    public void merge(KmerTable t) {
+        if (t.getKmerSize() != kmerSize) {
+            System.out.println("Error: can't merge kmer tables of different sizes");
+            System.exit(1);
+        }
+
+        if (t.denseCounts != null) {
+            for (int i=0; i<t.denseCounts.length; i++) {
+                if (t.denseCounts[i] > 0) {
+                    countCode(i, t.denseCounts[i]);
+                }
+            }
+        } else {
+            for (int i=0; i<t.keys.length; i++) {
+                if (t.keys[i] != EMPTY) {
+                    countCode(t.keys[i], t.values[i]);
+                }
+            }
+        }
+    }
+
     public void writeKmerTable() {
-        Set<String> keys = counts.keySet();
-        
+        long[] codes = getCodes();
+
         System.out.println("");
         System.out.println("Writing kmer table...");
-        
-        for(String kmer : keys) {
-            int count = counts.get(kmer);
-            System.out.println(kmer + "\t" + count);
+
+        for (int i=0; i<codes.length; i++) {
+            System.out.println(decode(codes[i], kmerSize) + "\t" + get(codes[i]));
         }
 
-        System.out.println("");    
+        System.out.println("");
     }
-    
+
     public int getKmerSize() {
         return kmerSize;
     }
-    
-    public Set<String> getKeys() {
-        return counts.keySet();
+
+    /**
+     * Get all kmers seen, in order of code.
+     * @return array of encoded kmers
+     */
+    public long[] getCodes() {
+        long[] codes;
+        int n = 0;
+
+        if (denseCounts != null) {
+            for (int i=0; i<denseCounts.length; i++) {
+                if (denseCounts[i] > 0) {
+                    n++;
+                }
+            }
+            codes = new long[n];
+            n = 0;
+            for (int i=0; i<denseCounts.length; i++) {
+                if (denseCounts[i] > 0) {
+                    codes[n++] = i;
+                }
+            }
+        } else {
+            codes = new long[nKeys];
+            for (int i=0; i<keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    codes[n++] = keys[i];
+                }
+            }
+            Arrays.sort(codes);
+        }
+
+        return codes;
     }
-    
-    public int get(String kmer) {
+
+    /**
+     * Get count for an encoded kmer.
+     * @param code 2-bit encoded kmer
+     * @return count
+     */
+    public int get(long code) {
         int value = 0;
-        
-        if (counts.containsKey(kmer)) {
-            value = counts.get(kmer);
+
+        if (denseCounts != null) {
+            value = denseCounts[(int)code];
+        } else {
+            int s = slot(code);
+            while (keys[s] != EMPTY) {
+                if (keys[s] == code) {
+                    value = values[s];
+                    break;
+                }
+                s = (s + 1) & (keys.length - 1);
+            }
         }
-        
+
         return value;
     }
-    
-    public Hashtable getTable() {
-        return counts;
+
+    public int get(String kmer) {
+        long code = encode(kmer);
+
+        return code >= 0 ? get(code) : 0;
+    }
+
+    /**
+     * Get total number of kmers counted.
+     * @return total count
+     */
+    public long getTotal() {
+        return total;
     }
 }
@@ -92,7 +92,7 @@ public abstract class MAFParser {
         } catch (Exception e) {
             System.out.println("parseFile Exception:");
             e.printStackTrace();
-            options.getLog().println("Exception parsing "+filename);
+            options.getLog().println(NanoOKLog.LOG_ERROR, "Exception parsing "+filename);
             options.getLog().close();
             System.exit(1);
         }
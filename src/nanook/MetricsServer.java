@@ -0,0 +1,161 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett
+ *
+ * Copyright 2015 The Genome Analysis Centre (TGAC)
+ */
+
+package nanook;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+
+/**
+ * Optional HTTP server, bound to localhost, serving live metrics for the
+ * current run. /metrics gives Prometheus text format and /metrics.json gives
+ * JSON. Metrics are the progress of the current stage (see ProgressReporter)
+ * and the counts of every read set parsed so far.
+ *
+ * @author Richard Leggett
+ */
+public class MetricsServer {
+    private static volatile ProgressReporter progress = null;
+    private static ArrayList<ReadSetStats> readSets = new ArrayList<ReadSetStats>();
+    private HttpServer server;
+
+    /**
+     * Start server.
+     * @param port port to listen on
+     */
+    public MetricsServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", new HttpHandler() {
+            public void handle(HttpExchange t) throws IOException {
+                if (t.getRequestURI().getPath().equals("/metrics.json")) {
+                    send(t, "application/json", getJSON());
+                } else if (t.getRequestURI().getPath().equals("/metrics")) {
+                    send(t, "text/plain; version=0.0.4", getPrometheus());
+                } else {
+                    t.sendResponseHeaders(404, -1);
+                    t.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Stop server.
+     */
+    public void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * Set the stage being reported.
+     * @param p ProgressReporter for stage
+     */
+    public static void setProgress(ProgressReporter p) {
+        progress = p;
+    }
+
+    /**
+     * Add a read set to be reported.
+     * @param s ReadSetStats object
+     */
+    public static synchronized void addStats(ReadSetStats s) {
+        if (!readSets.contains(s)) {
+            readSets.add(s);
+        }
+    }
+
+    private static synchronized ReadSetStats[] getReadSets() {
+        return readSets.toArray(new ReadSetStats[readSets.size()]);
+    }
+
+    private void send(HttpExchange t, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        t.getResponseHeaders().set("Content-Type", contentType);
+        t.sendResponseHeaders(200, bytes.length);
+        OutputStream os = t.getResponseBody();
+        os.write(bytes);
+        os.close();
+    }
+
+    /**
+     * Get metrics as JSON.
+     * @return JSON
+     */
+    private String getJSON() {
+        ProgressReporter p = progress;
+        ReadSetStats[] r = getReadSets();
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("{\n");
+        sb.append("  \"stage\": " + (p == null ? "null" : p.toJSON("  ")) + ",\n");
+        sb.append("  \"readSets\": [");
+        for (int i=0; i<r.length; i++) {
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    {\n");
+            sb.append("      \"type\": \"" + NanoOKOptions.getTypeFromInt(r[i].getType()) + "\",\n");
+            sb.append("      \"reads\": " + r[i].getNumReads() + ",\n");
+            sb.append("      \"bases\": " + r[i].getTotalBases() + ",\n");
+            sb.append("      \"readsWithAlignments\": " + r[i].getNumberOfReadsWithAlignments() + ",\n");
+            sb.append("      \"readsWithoutAlignments\": " + r[i].getNumberOfReadsWithoutAlignments() + ",\n");
+            sb.append("      \"longest\": " + r[i].getLongest() + ",\n");
+            sb.append("      \"shortest\": " + r[i].getShortest() + "\n");
+            sb.append("    }");
+        }
+        sb.append(r.length > 0 ? "\n  ]\n" : "]\n");
+        sb.append("}\n");
+
+        return sb.toString();
+    }
+
+    /**
+     * Add one metric per read set to Prometheus output.
+     */
+    private void appendReadSetMetric(StringBuilder sb, ReadSetStats[] r, String name, String type, String help, int metric) {
+        sb.append("# HELP " + name + " " + help + "\n");
+        sb.append("# TYPE " + name + " " + type + "\n");
+        for (int i=0; i<r.length; i++) {
+            long value = 0;
+            switch (metric) {
+                case 0: value = r[i].getNumReads(); break;
+                case 1: value = r[i].getTotalBases(); break;
+                case 2: value = r[i].getNumberOfReadsWithAlignments(); break;
+                case 3: value = r[i].getNumberOfReadsWithoutAlignments(); break;
+                case 4: value = r[i].getLongest(); break;
+            }
+            sb.append(name + "{type=\"" + NanoOKOptions.getTypeFromInt(r[i].getType()) + "\"} " + value + "\n");
+        }
+    }
+
+    /**
+     * Get metrics in Prometheus text format.
+     * @return metrics
+     */
+    private String getPrometheus() {
+        ProgressReporter p = progress;
+        ReadSetStats[] r = getReadSets();
+        StringBuilder sb = new StringBuilder();
+
+        if (p != null) {
+            p.appendPrometheus(sb);
+        }
+
+        appendReadSetMetric(sb, r, "nanook_reads_parsed_total", "counter", "Reads parsed", 0);
+        appendReadSetMetric(sb, r, "nanook_bases_parsed_total", "counter", "Bases in reads parsed", 1);
+        appendReadSetMetric(sb, r, "nanook_reads_aligned_total", "counter", "Reads parsed with an alignment", 2);
+        appendReadSetMetric(sb, r, "nanook_reads_unaligned_total", "counter", "Reads parsed without an alignment", 3);
+        appendReadSetMetric(sb, r, "nanook_longest_read_bases", "gauge", "Longest read parsed", 4);
+
+        return sb.toString();
+    }
+}
@@ -17,40 +17,54 @@ import static nanook.NanoOKOptions.TYPE_TEMPLATE;
 
 /**
  * Store all motif statistics (ie, insertion, deletion, substitution) at a range
- * of sizes (3, 4, 5) for a single read type (Template, Complement or 2D).
+ * of sizes (3 to 6) for a single read type (Template, Complement or 2D).
  * 
  * @author Richard Leggett
  */
 public class MotifStatistics implements Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
-    private KmerMotifStatistic[] insertionMotifs = new KmerMotifStatistic[3];
-    private KmerMotifStatistic[] deletionMotifs = new KmerMotifStatistic[3];
-    private KmerMotifStatistic[] substitutionMotifs = new KmerMotifStatistic[3];
+    public final static int MIN_MOTIF_SIZE = 3;
+    public final static int MAX_MOTIF_SIZE = 6;
+    private final static int N_MOTIF_SIZES = MAX_MOTIF_SIZE - MIN_MOTIF_SIZE + 1;
+    private KmerMotifStatistic[] insertionMotifs = new KmerMotifStatistic[N_MOTIF_SIZES];
+    private KmerMotifStatistic[] deletionMotifs = new KmerMotifStatistic[N_MOTIF_SIZES];
+    private KmerMotifStatistic[] substitutionMotifs = new KmerMotifStatistic[N_MOTIF_SIZES];
     
     /**
      * Constructor
      */
     public MotifStatistics() {
-        for (int k=0; k<3; k++) {
-            insertionMotifs[k] = new KmerMotifStatistic(k+3);
-            deletionMotifs[k] = new KmerMotifStatistic(k+3);
-            substitutionMotifs[k] = new KmerMotifStatistic(k+3);
+        for (int k=0; k<N_MOTIF_SIZES; k++) {
+            insertionMotifs[k] = new KmerMotifStatistic(k+MIN_MOTIF_SIZE);
+            deletionMotifs[k] = new KmerMotifStatistic(k+MIN_MOTIF_SIZE);
+            substitutionMotifs[k] = new KmerMotifStatistic(k+MIN_MOTIF_SIZE);
         }
     }
     
     /**
-     * Given a stretch of perfect sequence, store motifs at all k size.
+     * Given a stretch of perfect sequence, store motifs at all k size. The
+     * sequence is encoded once, from the end backwards, and each size takes
+     * its motif from the low bits of that code.
      * @param motif KmerMotifStatistic object to add to
      * @param kmer perfect sequence to get motifs from
      */
     public void addMotifs(KmerMotifStatistic[] motif, String kmer) {
-        if (kmer.length() < 3) {
+        int code = 0;
+        
+        if (kmer.length() < MIN_MOTIF_SIZE) {
             return;
         }
         
-        for (int k=3; k<=5; k++) {
-            if (kmer.length() > k) {
-                motif[k-3].addMotif(kmer.substring(kmer.length() - k));
+        for (int k=1; (k<=MAX_MOTIF_SIZE) && (k<kmer.length()); k++) {
+            int b = KmerTable.encodeBase(kmer.charAt(kmer.length() - k));
+            if (b < 0) {
+                break;
+            }
+            
+            code = code | (b << (2 * (k - 1)));
+            
+            if (k >= MIN_MOTIF_SIZE) {
+                motif[k-MIN_MOTIF_SIZE].addMotif(code);
             }
         }
     }
@@ -79,14 +93,26 @@ public class MotifStatistics implements Serializable {
         addMotifs(substitutionMotifs, kmer);
     }
 
+    /**
+     * Add counts from another set of motif statistics.
+     * @param m MotifStatistics to merge in
+     */
+    public void merge(MotifStatistics m) {
+        for (int k=0; k<N_MOTIF_SIZES; k++) {
+            insertionMotifs[k].merge(m.insertionMotifs[k]);
+            deletionMotifs[k].merge(m.deletionMotifs[k]);
+            substitutionMotifs[k].merge(m.substitutionMotifs[k]);
+        }
+    }
+
     /**
      * Output motif counts to screen (debugging).
      * @param motif KmerMotifStatistic object to get counts from
      */
     private void outputMotifCounts(KmerMotifStatistic[] motif) {
-        for (int k=3; k<=5; k++) {
+        for (int k=MIN_MOTIF_SIZE; k<=MAX_MOTIF_SIZE; k++) {
             System.out.println("k="+k);
-            motif[k-3].outputMotifCounts();
+            motif[k-MIN_MOTIF_SIZE].outputMotifCounts();
         }        
     }
     
@@ -109,7 +135,7 @@ public class MotifStatistics implements Serializable {
      * @return ArrayList of counts.
      */
     public ArrayList<Map.Entry<String, Integer>> getSortedInsertionMotifCounts(int k) {
-        return insertionMotifs[k-3].getSortedMotifCounts();
+        return insertionMotifs[k-MIN_MOTIF_SIZE].getSortedMotifCounts();
     }
 
     /**
@@ -118,7 +144,7 @@ public class MotifStatistics implements Serializable {
      * @return ArrayList of counts.
      */
     public ArrayList<Map.Entry<String, Integer>> getSortedDeletionMotifCounts(int k) {
-        return deletionMotifs[k-3].getSortedMotifCounts();
+        return deletionMotifs[k-MIN_MOTIF_SIZE].getSortedMotifCounts();
     }
 
     /**
@@ -127,7 +153,7 @@ public class MotifStatistics implements Serializable {
      * @return ArrayList of counts.
      */
     public ArrayList<Map.Entry<String, Integer>> getSortedSubstitutionMotifCounts(int k) {
-        return substitutionMotifs[k-3].getSortedMotifCounts();
+        return substitutionMotifs[k-MIN_MOTIF_SIZE].getSortedMotifCounts();
     }
     
     /**
@@ -136,7 +162,7 @@ public class MotifStatistics implements Serializable {
      * @return ArrayList of counts.
      */
     public ArrayList<Map.Entry<String, Double>> getSortedInsertionMotifPercentages(int k) {
-        return insertionMotifs[k-3].getSortedMotifPercentages();
+        return insertionMotifs[k-MIN_MOTIF_SIZE].getSortedMotifPercentages();
     }
 
     /**
@@ -145,7 +171,7 @@ public class MotifStatistics implements Serializable {
      * @return ArrayList of counts.
      */
     public ArrayList<Map.Entry<String, Double>> getSortedDeletionMotifPercentages(int k) {
-        return deletionMotifs[k-3].getSortedMotifPercentages();
+        return deletionMotifs[k-MIN_MOTIF_SIZE].getSortedMotifPercentages();
     }
 
     /**
@@ -154,7 +180,7 @@ public class MotifStatistics implements Serializable {
      * @return ArrayList of counts.
      */
     public ArrayList<Map.Entry<String, Double>> getSortedSubstitutionMotifPercentages(int k) {
-        return substitutionMotifs[k-3].getSortedMotifPercentages();
+        return substitutionMotifs[k-MIN_MOTIF_SIZE].getSortedMotifPercentages();
     }    
     
     /**
@@ -164,7 +190,7 @@ public class MotifStatistics implements Serializable {
      * @param k kmer size
      */
     public void writeInsertionLogoImage(int type, String filename, int k) {
-        insertionMotifs[k-3].writeLogoImage(type, filename);
+        insertionMotifs[k-MIN_MOTIF_SIZE].writeLogoImage(type, filename);
     }
 
     /**
@@ -174,7 +200,7 @@ public class MotifStatistics implements Serializable {
      * @param k kmer size
      */
     public void writeDeletionLogoImage(int type, String filename, int k) {
-        deletionMotifs[k-3].writeLogoImage(type, filename);
+        deletionMotifs[k-MIN_MOTIF_SIZE].writeLogoImage(type, filename);
     }
 
     /**
@@ -184,7 +210,7 @@ public class MotifStatistics implements Serializable {
      * @param k kmer size
      */
     public void writeSubstitutionLogoImage(int type, String filename, int k) {
-        substitutionMotifs[k-3].writeLogoImage(type, filename);
+        substitutionMotifs[k-MIN_MOTIF_SIZE].writeLogoImage(type, filename);
     }
 
     /**
@@ -198,13 +224,13 @@ public class MotifStatistics implements Serializable {
         
         switch(errorType) {
             case NanoOKOptions.TYPE_INSERTION:
-                count = insertionMotifs[k-3].getTotalMotifCount();
+                count = insertionMotifs[k-MIN_MOTIF_SIZE].getTotalMotifCount();
                 break;
             case NanoOKOptions.TYPE_DELETION:
-                count = deletionMotifs[k-3].getTotalMotifCount();
+                count = deletionMotifs[k-MIN_MOTIF_SIZE].getTotalMotifCount();
                 break;
             case NanoOKOptions.TYPE_SUBSTITUTION:
-                count = substitutionMotifs[k-3].getTotalMotifCount();
+                count = substitutionMotifs[k-MIN_MOTIF_SIZE].getTotalMotifCount();
                 break;
             default:
                 System.out.println("Error: bad error type in getTotalMotifCounts");
@@ -11,11 +11,13 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 //import ncsa.hdf.object.FileFormat;
 //import ncsa.hdf.object.h5.H5File;
 
@@ -26,7 +28,7 @@ import java.util.concurrent.ThreadPoolExecutor;
  */
 public class NanoOK {
     public final static String VERSION_STRING = "v0.62";
-    public final static long SERIAL_VERSION = 3L;
+    public final static long SERIAL_VERSION = 4L;
     
     /**
      * Check for program dependencies - R, pdflatex
@@ -180,25 +182,45 @@ public class NanoOK {
         
         System.out.println("");
         
+        if (options.getWatchInterval() > 0) {
+            watch(options, overallStats);
+            return;
+        }
+        
         // Parse all reads sets       
         if (options.doParseAlignments()) {
             ReadLengthsSummaryFile summary = new ReadLengthsSummaryFile(options.getLengthSummaryFilename());
             summary.open(options.getSample());
+            ReadSet[] readSets = null;
+            
+            if (options.doParallelTypes()) {
+                readSets = parseReadSetsInParallel(options, overallStats);
+            }
             
             for (int type = 0; type<3; type++) {
                 if (options.isProcessingReadType(type)) {
-                    System.out.println("Parsing " + NanoOKOptions.getTypeFromInt(type));
-                    ReadSet readSet = new ReadSet(type, options, overallStats.getStatsByType(type));
-                    int nReads = readSet.processReads();
+                    ReadSet readSet;
+                    int nReads;
+                    
+                    if (readSets != null) {
+                        readSet = readSets[type];
+                        nReads = readSet.getNumberOfReadFiles();
+                        System.out.println(NanoOKOptions.getTypeFromInt(type));
+                    } else {
+                        System.out.println("Parsing " + NanoOKOptions.getTypeFromInt(type));
+                        readSet = new ReadSet(type, options, overallStats.getStatsByType(type));
+                        nReads = readSet.processReads();
+                    }
 
-                    if (nReads < 1) {
+                    // A shard may legitimately get no reads, and must still be written for merge
+                    if ((nReads < 1) && !options.isSharded()) {
                         System.out.println("Error: unable to find any " + NanoOKOptions.getTypeFromInt(type) + " reads to process.");
                         System.out.println("");
                         System.exit(1);
                     }
 
                     int nReadsWithAlignments = readSet.getStats().getNumberOfReadsWithAlignments();
-                    if (nReadsWithAlignments < 1) {
+                    if ((nReadsWithAlignments < 1) && !options.isSharded()) {
                         System.out.println("");
                         System.out.println("Error: unable to find any " + NanoOKOptions.getTypeFromInt(type) + " alignments to process.");
                         System.out.println("Common reasons for this:");
@@ -208,13 +230,16 @@ public class NanoOK {
                         System.out.println("   e.g. lastdb -Q 0 referencename referencename.fasta");
                         System.out.println("");
                         System.exit(1);
-                    } else if (nReadsWithAlignments < 400) {
+                    } else if ((nReadsWithAlignments < 400) && !options.isSharded()) {
                         System.out.println("Warning: not many alignments ("+nReadsWithAlignments+") found to process.");
                     }
 
                     summary.addReadSetStats(overallStats.getStatsByType(type));
                     overallStats.getStatsByType(type).closeKmersFile();
+                    overallStats.getStatsByType(type).clearReadIds();
                     overallStats.getStatsByType(type).writeSubstitutionStats();
+                    overallStats.getStatsByType(type).writeTimeStats();
+                    overallStats.getStatsByType(type).writeChannelStats();
                     overallStats.getStatsByType(type).writeErrorMotifStats();
                     
                     int ignoredDuplicates = overallStats.getStatsByType(type).getIgnoredDuplicates();
@@ -228,6 +253,192 @@ public class NanoOK {
             }
             summary.close();            
             
+            if (options.isSharded()) {
+                writeOverallStats(options, overallStats);
+                System.out.println("");
+                System.out.println("Shard " + options.getShardString() + " complete - run merge once all shards have finished");
+                return;
+            }
+        }
+        
+        writeResults(options, overallStats);
+        System.out.println("");
+        System.out.println("Done");
+    }
+    
+    /**
+     * Analyse an in-progress run. Read directories are rescanned at each
+     * interval and only new reads are parsed, adding to the stats so far;
+     * stats files, graphs and report are then rewritten. Stops once no new
+     * reads have appeared for the idle time, if one was given.
+     * @param options NanoOKOptions object
+     * @param overallStats stats to parse into
+     */
+    private static void watch(NanoOKOptions options, OverallStats overallStats) throws InterruptedException {
+        ThreadPoolExecutor executor = ReadSet.createParserExecutor(options.getNumberOfThreads());
+        ProgressReporter progress = new ProgressReporter(options, "watch", "", executor);
+        ReadSet[] readSets = new ReadSet[3];
+        long interval = options.getWatchInterval() * 1000L;
+        long idle = options.getWatchIdle() * 1000L;
+        long lastNewReads = System.currentTimeMillis();
+        int nUpdates = 0;
+        
+        for (int type = 0; type<3; type++) {
+            if (options.isProcessingReadType(type)) {
+                readSets[type] = new ReadSet(type, options, overallStats.getStatsByType(type), executor, progress);
+                readSets[type].setWatching();
+            }
+        }
+        
+        System.out.println("Watching for reads every " + options.getWatchInterval() + "s");
+        while (true) {
+            long scanStart = System.currentTimeMillis();
+            int nNew = 0;
+            
+            for (int type = 0; type<3; type++) {
+                if (readSets[type] != null) {
+                    nNew += readSets[type].submitReads();
+                }
+            }
+            
+            // Wait for this batch, leaving the pool running for the next
+            while (executor.getCompletedTaskCount() < executor.getTaskCount()) {
+                progress.update();
+                Thread.sleep(100);
+            }
+            progress.update();
+            
+            int nAligned = 0;
+            for (int type = 0; type<3; type++) {
+                if (readSets[type] != null) {
+                    nAligned += readSets[type].getStats().getNumberOfReadsWithAlignments();
+                }
+            }
+            
+            if (nNew > 0) {
+                lastNewReads = System.currentTimeMillis();
+                System.out.println("");
+                System.out.println("Parsed " + nNew + " new reads");
+                
+                if (nAligned > 0) {
+                    options.initialiseAlignmentSummaryFile();
+                    ReadLengthsSummaryFile summary = new ReadLengthsSummaryFile(options.getLengthSummaryFilename());
+                    summary.open(options.getSample());
+                    for (int type = 0; type<3; type++) {
+                        if (readSets[type] != null) {
+                            readSets[type].updateReads();
+                            summary.addReadSetStats(overallStats.getStatsByType(type));
+                            overallStats.getStatsByType(type).writeSubstitutionStats();
+                            overallStats.getStatsByType(type).writeTimeStats();
+                            overallStats.getStatsByType(type).writeChannelStats();
+                            overallStats.getStatsByType(type).writeErrorMotifStats();
+                        }
+                    }
+                    summary.close();
+                    
+                    writeResults(options, overallStats);
+                    nUpdates++;
+                    System.out.println("");
+                    System.out.println("Update " + nUpdates + " complete");
+                }
+            } else if ((idle > 0) && ((System.currentTimeMillis() - lastNewReads) >= idle)) {
+                break;
+            }
+            
+            long wait = interval - (System.currentTimeMillis() - scanStart);
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+        }
+        
+        executor.shutdown();
+        progress.waitForCompletion();
+        options.initialiseAlignmentSummaryFile();
+        for (int type = 0; type<3; type++) {
+            if (readSets[type] != null) {
+                readSets[type].finishReads();
+                overallStats.getStatsByType(type).closeKmersFile();
+                overallStats.getStatsByType(type).clearReadIds();
+            }
+        }
+        
+        System.out.println("");
+        System.out.println("No new reads for " + options.getWatchIdle() + "s - stopped watching after " + nUpdates + " updates");
+    }
+    
+    /**
+     * Parse all chosen read types at the same time, sharing one thread pool.
+     * @param options NanoOKOptions object
+     * @param overallStats stats to parse into
+     * @return array of ReadSets, indexed by type
+     */
+    private static ReadSet[] parseReadSetsInParallel(NanoOKOptions options, OverallStats overallStats) throws InterruptedException {
+        ThreadPoolExecutor executor = ReadSet.createParserExecutor(options.getNumberOfThreads());
+        ProgressReporter progress = new ProgressReporter(options, "parse", "", executor);
+        ReadSet[] readSets = new ReadSet[3];
+        
+        System.out.println("Parsing all read types");
+        for (int type = 0; type<3; type++) {
+            if (options.isProcessingReadType(type)) {
+                readSets[type] = new ReadSet(type, options, overallStats.getStatsByType(type), executor, progress);
+                readSets[type].submitReads();
+            }
+        }
+        
+        // That's all - wait for all threads to finish
+        executor.shutdown();
+        progress.waitForCompletion();
+        System.out.println("");
+
+        for (int type = 0; type<3; type++) {
+            if (readSets[type] != null) {
+                readSets[type].finishReads();
+            }
+        }
+        
+        return readSets;
+    }
+    
+    /**
+     * Write the OverallStats object of a shard, for merging.
+     * @param options NanoOKOptions object
+     * @param overallStats stats to write
+     */
+    private static void writeOverallStats(NanoOKOptions options, OverallStats overallStats) {
+        System.out.println("Writing object");
+        try {
+            FileOutputStream fos = new FileOutputStream(options.getAnalysisDir() + File.separator + "OverallStats.ser");
+            ObjectOutputStream oos = new ObjectOutputStream(fos);
+            oos.writeObject(overallStats);
+            oos.close();
+        } catch (Exception e) {
+            System.out.println("Exception trying to write object:");
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Write the binary sample summary used by compare.
+     * @param options NanoOKOptions object
+     * @param overallStats stats to summarise
+     */
+    private static void writeSampleSummary(NanoOKOptions options, OverallStats overallStats) {
+        System.out.println("Writing summary");
+        try {
+            SampleSummaryFile.write(options.getAnalysisDir() + File.separator + SampleSummaryFile.FILENAME, options, overallStats);
+        } catch (IOException e) {
+            System.out.println("Exception trying to write summary:");
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Write analysis files, plot graphs and make report, once stats have been gathered.
+     * @param options NanoOKOptions object
+     * @param overallStats gathered stats
+     */
+    private static void writeResults(NanoOKOptions options, OverallStats overallStats) throws InterruptedException {
+        if (options.doParseAlignments()) {
             // Write files
             System.out.println("Writing analysis files");
             Set<String> ids = options.getReferences().getAllIds();
@@ -258,17 +469,7 @@ public class NanoOK {
             }
             System.out.println("");
 
-            System.out.println("Writing object");
-            try {
-                FileOutputStream fos = new FileOutputStream(options.getAnalysisDir() + File.separator + "OverallStats.ser");
-                ObjectOutputStream oos = new ObjectOutputStream(fos);
-                oos.writeObject(overallStats);
-                oos.close();
-            } catch (Exception e) {
-                System.out.println("Exception trying to write object:");
-                e.printStackTrace();
-            }
-        
+            writeSampleSummary(options, overallStats);
         }
         
         // Plot graphs
@@ -292,7 +493,47 @@ public class NanoOK {
                 rw.makePDF();
             }
         }
-                
+    }
+    
+    private static void merge(NanoOKOptions options) throws InterruptedException {
+        OverallStats overallStats = new OverallStats(options);
+        options.getReferences().setOverallStats(overallStats);
+
+        // Check shards before anything in the analysis directory is overwritten
+        ShardMerger merger = new ShardMerger(options, overallStats);
+        if (merger.findShards() < 1) {
+            System.out.println("Error: unable to find any completed shards in " + options.getShardsDir());
+            System.out.println("");
+            System.exit(1);
+        }
+
+        // Load reference data
+        options.getReferences().loadReferences();
+        options.setReadFormat(options.getParser().getReadFormat());
+        options.initialiseAlignmentSummaryFile();
+        
+        System.out.println("");
+        
+        merger.merge();
+        System.out.println("Merged " + merger.getNumberOfShards() + " shards");
+        System.out.println("");
+
+        ReadLengthsSummaryFile summary = new ReadLengthsSummaryFile(options.getLengthSummaryFilename());
+        summary.open(options.getSample());
+        for (int type = 0; type<3; type++) {
+            if (options.isProcessingReadType(type)) {
+                overallStats.getStatsByType(type).writeSummaryFile();
+                overallStats.getStatsByType(type).calculateStats();
+                summary.addReadSetStats(overallStats.getStatsByType(type));
+                overallStats.getStatsByType(type).writeSubstitutionStats();
+                overallStats.getStatsByType(type).writeTimeStats();
+                overallStats.getStatsByType(type).writeChannelStats();
+                overallStats.getStatsByType(type).writeErrorMotifStats();
+            }
+        }
+        summary.close();
+        
+        writeResults(options, overallStats);
         System.out.println("");
         System.out.println("Done");
     }
@@ -317,8 +558,6 @@ public class NanoOK {
         SampleComparer comparer = new SampleComparer(options);
         comparer.loadSamples();
         comparer.compareSamples();
-        
-        options.setReferences(comparer.getSample(0).getStatsByType(0).getOptions().getReferences());
 
         System.out.println("");
         System.out.println("Plotting graphs");
@@ -353,6 +592,7 @@ public class NanoOK {
         System.out.println("");
 
         NanoOKOptions options = new NanoOKOptions();
+        MetricsServer metricsServer = null;
                
         Locale.setDefault(new Locale("en", "US"));
         
@@ -365,6 +605,16 @@ public class NanoOK {
         System.out.println("Checking dependencies");
         checkDependencies();
         
+        if (options.getMetricsPort() > 0) {
+            try {
+                metricsServer = new MetricsServer(options.getMetricsPort());
+                System.out.println("Serving metrics on http://localhost:" + options.getMetricsPort() + "/metrics");
+            } catch (IOException e) {
+                System.out.println("Error: can't start metrics server on port " + options.getMetricsPort() + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        
         //testHDF(options);
         //System.exit(0);
         
@@ -374,12 +624,18 @@ public class NanoOK {
             align(options);
         } else if (options.getRunMode() == NanoOKOptions.MODE_ANALYSE) {
             analyse(options);
+        } else if (options.getRunMode() == NanoOKOptions.MODE_MERGE) {
+            merge(options);
         } else if (options.getRunMode() == NanoOKOptions.MODE_COMPARE) {
             compare(options);
         }
         
         //memoryReport();
         
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        
         options.getLog().close();
         
         if (options.getReturnValue() != 0) {
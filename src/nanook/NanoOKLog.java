@@ -1,7 +1,7 @@
 /*
  * Program: NanoOK
  * Author:  Richard M. Leggett
- * 
+ *
  * Copyright 2015 The Genome Analysis Centre (TGAC)
  */
 
@@ -11,47 +11,141 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * Logging
- * 
+ * Logging. Messages are handed to a background writer thread through a
+ * lock-free queue, so worker threads never block on file output. Callers on
+ * hot paths should check isLogging() before building a message.
+ *
  * @author Richard Leggett
  */
 public class NanoOKLog  implements Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
+    public final static int LOG_OFF = 0;
+    public final static int LOG_ERROR = 1;
+    public final static int LOG_INFO = 2;
+    public final static int LOG_DEBUG = 3;
     private transient PrintWriter pw = null;
-    
+    private transient ConcurrentLinkedQueue<String> queue = null;
+    private transient Thread writerThread = null;
+    private transient volatile boolean running = false;
+    private transient volatile int level = LOG_OFF;
+    private int requestedLevel = LOG_INFO;
+
     public NanoOKLog() {
     }
-    
+
+    /**
+     * Convert a level name (error, info, debug) to a level constant.
+     * @param s level name
+     * @return level, or -1 if not recognised
+     */
+    public static int getLevelFromString(String s) {
+        int l = -1;
+
+        if (s.equalsIgnoreCase("off")) {
+            l = LOG_OFF;
+        } else if (s.equalsIgnoreCase("error")) {
+            l = LOG_ERROR;
+        } else if (s.equalsIgnoreCase("info")) {
+            l = LOG_INFO;
+        } else if (s.equalsIgnoreCase("debug")) {
+            l = LOG_DEBUG;
+        }
+
+        return l;
+    }
+
+    /**
+     * Set level of messages to write once the log is open.
+     * @param l level, e.g. LOG_DEBUG
+     */
+    public synchronized void setLevel(int l) {
+        requestedLevel = l;
+        if (pw != null) {
+            level = l;
+        }
+    }
+
     public synchronized void open(String filename) {
         try {
             pw = new PrintWriter(new FileWriter(filename, false));
+            queue = new ConcurrentLinkedQueue<String>();
+            running = true;
+            writerThread = new Thread(new Runnable() {
+                public void run() {
+                    writeQueuedMessages();
+                }
+            }, "NanoOKLog");
+            writerThread.setDaemon(true);
+            writerThread.start();
+            level = requestedLevel;
         } catch (IOException e) {
             System.out.println("NanoOKLog exception");
             e.printStackTrace();
-        }        
+        }
     }
-    
+
+    /**
+     * Background thread loop - drain the queue, flushing when idle.
+     */
+    private void writeQueuedMessages() {
+        while (running || !queue.isEmpty()) {
+            String s = queue.poll();
+            if (s != null) {
+                pw.print(s);
+            } else {
+                pw.flush();
+                LockSupport.parkNanos(10000000L);
+            }
+        }
+        pw.flush();
+    }
+
     public synchronized void close() {
         if (pw != null) {
+            level = LOG_OFF;
+            running = false;
+            LockSupport.unpark(writerThread);
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
             pw.close();
+            pw = null;
         }
     }
 
-    public synchronized void print(String s) {
-        if (pw != null) {
-            pw.print(s);
+    /**
+     * Check if messages at a given level will be written. Cheap enough to call
+     * on every read.
+     * @param l level, e.g. LOG_DEBUG
+     * @return true if logging at this level
+     */
+    public boolean isLogging(int l) {
+        return l <= level;
+    }
+
+    public void print(int l, String s) {
+        if (l <= level) {
+            queue.offer(s);
         }
     }
-        
-    public synchronized void println(String s) {
-        if (pw != null) {
-            pw.println(s);
+
+    public void println(int l, String s) {
+        if (l <= level) {
+            queue.offer(s + System.lineSeparator());
         }
     }
-    
-    public synchronized PrintWriter getPrintWriter() {
-        return pw;
-    }    
+
+    public void print(String s) {
+        print(LOG_INFO, s);
+    }
+
+    public void println(String s) {
+        println(LOG_INFO, s);
+    }
 }
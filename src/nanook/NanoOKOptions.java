@@ -17,12 +17,12 @@ import java.io.*;
 public class NanoOKOptions implements Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
     public final static int MAX_KMER = 5000;
-    public final static int MAX_READ_LENGTH = 1000000;
     public final static int MAX_READS = 1000000;
     public final static int MODE_EXTRACT = 1;
     public final static int MODE_ALIGN = 2;
     public final static int MODE_ANALYSE = 3;
     public final static int MODE_COMPARE = 4;
+    public final static int MODE_MERGE = 5;
     public final static int FASTA = 1;
     public final static int FASTQ = 2;
     public final static int TYPE_TEMPLATE = 0;
@@ -61,10 +61,25 @@ public class NanoOKOptions implements Serializable {
     private boolean fixIDs = false;
     private boolean fixRandom = false;
     private boolean doKmerCounting = true;
+    private int kmerSize = 5;
+    private boolean perBaseCoverage = false;
+    private boolean doPileup = false;
+    private boolean binaryTables = false;
+    private double pileupThreshold = 0.2;
+    private int pileupMemory = 0;
+    private boolean parallelTypes = false;
+    private int watchInterval = 0;
+    private int watchIdle = 0;
+    private int shardIndex = 0;
+    private int shardCount = 0;
     private boolean showAlignerCommand = false;
     private int runMode = 0;
     private int readFormat = FASTA;
     private int numThreads = 1;
+    private int numIOThreads = 0;
+    private int maxProcesses = 0;
+    private String statusFile = null;
+    private int metricsPort = 0;
     private String jobQueue = "";
     private NanoOKLog logFile = new NanoOKLog();
     private String imageFormat = "pdf";
@@ -111,7 +126,7 @@ public class NanoOKOptions implements Serializable {
         
         if (args.length <= 1) {
             System.out.println("");
-            System.out.println("Syntax nanook <extract|align|analyse|compare> [options]");
+            System.out.println("Syntax nanook <extract|align|analyse|merge|compare> [options]");
             System.out.println("");
             System.out.println("extract options:");
             System.out.println("    -s|-sample <dir> specifies sample directory");
@@ -133,10 +148,24 @@ public class NanoOKOptions implements Serializable {
             System.out.println("    -r|-reference <path> specifies path to reference database");
             System.out.println("    -aligner <name> specifies the aligner (default last)");            
             System.out.println("    -coveragebin <int> specifies coverage bin size (default 100)");            
+            System.out.println("    -perbasecoverage to also write per-base coverage files");
+            System.out.println("    -pileup to write per-base error pileup files");
+            System.out.println("    -pileupthreshold <float> minimum error rate for pileup summary (default 0.2)");
+            System.out.println("    -pileupmemory <MB> memory for pileup counts before spilling to disk (default a quarter of maximum heap)");
+            System.out.println("    -binarytables to also write alignment tables in columnar binary format (.bin)");
+            System.out.println("    -kmersize <int> specifies kmer size for kmer analysis (default 5, max " + KmerTable.MAX_KMER_SIZE + ")");
             System.out.println("    -passonly to analyse only pass reads");
             System.out.println("    -failonly to analyse only fail reads");            
             System.out.println("    -2donly to analyse only 2D reads"); 
             System.out.println("    -bitmaps to output bitmap PNG graphs instead of PDF");
+            System.out.println("    -shard <i/n> to parse only shard i of n of the read files, for merging later");
+            System.out.println("    -paralleltypes to parse Template, Complement and 2D reads at the same time");
+            System.out.println("    -watch <seconds> keeps watching for new reads of an in-progress run, updating results at this interval");
+            System.out.println("    -watchidle <seconds> stops watching once no new reads have appeared for this long (default never)");
+            System.out.println("");
+            System.out.println("merge options (combines results of analyse -shard runs):");
+            System.out.println("    -s|-sample <dir> specifies sample directory");
+            System.out.println("    -r|-reference <path> specifies path to reference database");
             System.out.println("");
             System.out.println("compare options:");
             System.out.println("    -l|-samplelist <file> specifies a sample list file");
@@ -145,7 +174,12 @@ public class NanoOKOptions implements Serializable {
             System.out.println("");
             System.out.println("Other options:");
             System.out.println("    -t|-numthreads <number> specifies the number of threads to use (default 1)");
+            System.out.println("    -iothreads <number> specifies threads for I/O bound work - extraction, alignment and plotting (default as -t)");
+            System.out.println("    -maxprocesses <number> specifies the maximum number of external processes to run at once (default as -t)");
+            System.out.println("    -statusfile <filename> writes progress as JSON to file, updated every few seconds");
+            System.out.println("    -metricsport <port> serves live metrics on http://localhost:<port>/metrics (Prometheus) and /metrics.json");
             System.out.println("    -log <filename> enables debug logging to file");
+            System.out.println("    -loglevel <error|info|debug> specifies detail of log file (default info)");
             System.out.println("");
             System.out.println("Comments/bugs to: richard.leggett@tgac.ac.uk");
             System.out.println("");
@@ -164,8 +198,10 @@ public class NanoOKOptions implements Serializable {
             runMode = MODE_ANALYSE;
         } else if (args[i].equals("compare")) {
             runMode = MODE_COMPARE;
+        } else if (args[i].equals("merge")) {
+            runMode = MODE_MERGE;
         } else {
-            System.out.println("Unknonwn mode " + args[i] + " - must be extract, align or analyse");
+            System.out.println("Unknonwn mode " + args[i] + " - must be extract, align, analyse, merge or compare");
             System.exit(1);
         }
         i++;
@@ -174,6 +210,48 @@ public class NanoOKOptions implements Serializable {
             if (args[i].equalsIgnoreCase("-coveragebin")) {
                 coverageBinSize = Integer.parseInt(args[i+1]);
                 i+=2;
+            } else if (args[i].equalsIgnoreCase("-perbasecoverage")) {
+                perBaseCoverage = true;
+                i++;
+            } else if (args[i].equalsIgnoreCase("-shard")) {
+                String[] parts = args[i+1].split("/");
+                if (parts.length == 2) {
+                    shardIndex = Integer.parseInt(parts[0]);
+                    shardCount = Integer.parseInt(parts[1]);
+                }
+                if ((shardCount < 1) || (shardIndex < 1) || (shardIndex > shardCount)) {
+                    System.out.println("Error: shard must be given as i/n, where 1 <= i <= n");
+                    System.exit(1);
+                }
+                i+=2;
+            } else if (args[i].equalsIgnoreCase("-pileup")) {
+                doPileup = true;
+                i++;
+            } else if (args[i].equalsIgnoreCase("-binarytables")) {
+                binaryTables = true;
+                i++;
+            } else if (args[i].equalsIgnoreCase("-paralleltypes")) {
+                parallelTypes = true;
+                i++;
+            } else if (args[i].equalsIgnoreCase("-watch")) {
+                watchInterval = Integer.parseInt(args[i+1]);
+                i+=2;
+            } else if (args[i].equalsIgnoreCase("-watchidle")) {
+                watchIdle = Integer.parseInt(args[i+1]);
+                i+=2;
+            } else if (args[i].equalsIgnoreCase("-pileupthreshold")) {
+                pileupThreshold = Double.parseDouble(args[i+1]);
+                i+=2;
+            } else if (args[i].equalsIgnoreCase("-pileupmemory")) {
+                pileupMemory = Integer.parseInt(args[i+1]);
+                i+=2;
+            } else if (args[i].equalsIgnoreCase("-kmersize")) {
+                kmerSize = Integer.parseInt(args[i+1]);
+                if ((kmerSize < 1) || (kmerSize > KmerTable.MAX_KMER_SIZE)) {
+                    System.out.println("Error: kmer size must be between 1 and " + KmerTable.MAX_KMER_SIZE);
+                    System.exit(1);
+                }
+                i+=2;
             } else if (args[i].equalsIgnoreCase("-reference") || args[i].equalsIgnoreCase("-r")) {
                 referenceFile = args[i+1];
                 i+=2;
@@ -192,9 +270,23 @@ public class NanoOKOptions implements Serializable {
             } else if (args[i].equalsIgnoreCase("-maxreads")) {
                 maxReads = Integer.parseInt(args[i+1]);
                 i+=2;
+            } else if (args[i].equalsIgnoreCase("-statusfile")) {
+                statusFile = args[i+1];
+                i+=2;
+            } else if (args[i].equalsIgnoreCase("-metricsport")) {
+                metricsPort = Integer.parseInt(args[i+1]);
+                i+=2;
             } else if (args[i].equalsIgnoreCase("-log")) {
                 logFile.open(args[i+1]);
                 i+=2;
+            } else if (args[i].equalsIgnoreCase("-loglevel")) {
+                int level = NanoOKLog.getLevelFromString(args[i+1]);
+                if (level < 0) {
+                    System.out.println("Error: unknown log level " + args[i+1]);
+                    System.exit(1);
+                }
+                logFile.setLevel(level);
+                i+=2;
             } else if (args[i].equalsIgnoreCase("-type")) {
                 if (args[i+1].equalsIgnoreCase("template")) {
                     specifiedType = TYPE_TEMPLATE;
@@ -257,13 +349,19 @@ public class NanoOKOptions implements Serializable {
             } else if (args[i].equalsIgnoreCase("-numthreads") || args[i].equalsIgnoreCase("-t")) {
                 numThreads = Integer.parseInt(args[i+1]);
                 i+=2;
+            } else if (args[i].equalsIgnoreCase("-iothreads")) {
+                numIOThreads = Integer.parseInt(args[i+1]);
+                i+=2;
+            } else if (args[i].equalsIgnoreCase("-maxprocesses")) {
+                maxProcesses = Integer.parseInt(args[i+1]);
+                i+=2;
             } else {                
                 System.out.println("Unknown parameter: " + args[i]);
                 System.exit(0);
             }            
         }
                 
-        if ((runMode == MODE_ALIGN) || (runMode == MODE_ANALYSE)) {
+        if ((runMode == MODE_ALIGN) || (runMode == MODE_ANALYSE) || (runMode == MODE_MERGE)) {
             if (referenceFile == null) {
                 System.out.println("Error: You must specify a reference");
                 System.exit(1);
@@ -274,6 +372,41 @@ public class NanoOKOptions implements Serializable {
             }
         }
         
+        if (numIOThreads < 1) {
+            numIOThreads = numThreads;
+        }
+        
+        if (maxProcesses < 1) {
+            maxProcesses = numThreads;
+        }
+        ProcessLogger.setMaxProcesses(maxProcesses);
+        
+        if (pileupMemory > 0) {
+            PileupTable.setMemory(pileupMemory);
+        }
+        
+        if ((shardCount > 0) && (runMode != MODE_ANALYSE)) {
+            System.out.println("Error: -shard can only be used with analyse");
+            System.exit(1);
+        }
+        
+        if ((watchInterval > 0) && ((runMode != MODE_ANALYSE) || (shardCount > 0))) {
+            System.out.println("Error: -watch can only be used with analyse, without -shard");
+            System.exit(1);
+        }
+        
+        if ((runMode == MODE_MERGE) || (shardCount > 0)) {
+            if (perBaseCoverage || doPileup) {
+                System.out.println("Warning: per-base coverage and pileup aren't stored by shards, so can't be merged");
+                perBaseCoverage = false;
+                doPileup = false;
+            }
+            if (binaryTables) {
+                System.out.println("Warning: binary alignment tables can't be merged from shards");
+                binaryTables = false;
+            }
+        }
+        
         if (runMode == MODE_COMPARE) {
             if (comparisonDir == null) {
                 System.out.println("Error: you must specify an output dir for the comparison");
@@ -388,7 +521,7 @@ public class NanoOKOptions implements Serializable {
         File logsDir = new File(getLogsDir());
         
         if (!analysisDir.exists()) {
-            analysisDir.mkdir();
+            analysisDir.mkdirs();
         }
         
         if (!unalignedAnalysisDir.exists()) {
@@ -600,9 +733,51 @@ public class NanoOKOptions implements Serializable {
      * @return directory name as String
      */
     public String getAnalysisDir() {
-        return sampleDirectory + File.separator + "analysis";
+        if (shardCount > 0) {
+            return getShardsDir() + File.separator + "shard_" + shardIndex + "_of_" + shardCount;
+        } else {
+            return sampleDirectory + File.separator + "analysis";
+        }
     } 
     
+    /**
+     * Get directory holding the results of each shard of a sharded analysis.
+     * @return directory name as String
+     */
+    public String getShardsDir() {
+        return sampleDirectory + File.separator + "analysis" + File.separator + "shards";
+    }
+    
+    /**
+     * Check if this is one shard of a sharded analysis.
+     * @return true if sharded
+     */
+    public boolean isSharded() {
+        return shardCount > 0;
+    }
+    
+    /**
+     * Get shard as a String, e.g. 2/4
+     * @return shard String
+     */
+    public String getShardString() {
+        return shardIndex + "/" + shardCount;
+    }
+    
+    /**
+     * Check if a read file belongs to this shard. The choice depends only on
+     * the filename, so every shard run agrees on it.
+     * @param filename leafname of read file
+     * @return true if this shard should process the file
+     */
+    public boolean isFileInShard(String filename) {
+        if (shardCount < 1) {
+            return true;
+        }
+        
+        return ((filename.hashCode() & 0x7FFFFFFF) % shardCount) == (shardIndex - 1);
+    }
+    
     /**
      * Get LaTeX filename.
      * @return filename as String
@@ -732,6 +907,31 @@ public class NanoOKOptions implements Serializable {
         return numThreads;
     }
     
+    /**
+     * Get name of JSON status file.
+     * @return filename, or null if not writing one
+     */
+    public String getStatusFile() {
+        return statusFile;
+    }
+    
+    /**
+     * Get port for metrics server.
+     * @return port, or 0 if not serving metrics
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+    
+    /**
+     * Get number of threads for I/O bound tasks, which mostly wait on files
+     * or external processes.
+     * @return number of threads
+     */
+    public int getNumberOfIOThreads() {
+        return numIOThreads;
+    }
+    
     public String getQueue() {
         return jobQueue;
     }
@@ -775,6 +975,70 @@ public class NanoOKOptions implements Serializable {
         return doKmerCounting;
     }
     
+    /**
+     * Check if per-base coverage should be stored.
+     * @return true to store per-base coverage
+     */
+    public boolean doPerBaseCoverage() {
+        return perBaseCoverage;
+    }
+    
+    /**
+     * Check if per-base error pileup should be stored.
+     * @return true to store pileup
+     */
+    public boolean doPileup() {
+        return doPileup;
+    }
+    
+    /**
+     * Check if alignment tables should also be written in columnar binary format.
+     * @return true to write binary tables
+     */
+    public boolean doBinaryTables() {
+        return binaryTables;
+    }
+    
+    /**
+     * Check if read types should be parsed at the same time, on one thread pool.
+     * @return true to parse types in parallel
+     */
+    public boolean doParallelTypes() {
+        return parallelTypes;
+    }
+    
+    /**
+     * Get interval between results updates when watching an in-progress run.
+     * @return seconds, or 0 if not watching
+     */
+    public int getWatchInterval() {
+        return watchInterval;
+    }
+    
+    /**
+     * Get time without new reads after which watching stops.
+     * @return seconds, or 0 to watch until stopped
+     */
+    public int getWatchIdle() {
+        return watchIdle;
+    }
+    
+    /**
+     * Get minimum error rate for a position to appear in the pileup summary.
+     * @return error rate (0 to 1)
+     */
+    public double getPileupThreshold() {
+        return pileupThreshold;
+    }
+    
+    /**
+     * Get kmer size used for kmer analysis.
+     * @return kmer size
+     */
+    public int getKmerSize() {
+        return kmerSize;
+    }
+    
     public String getImageFormat() {
         return imageFormat;
     }
@@ -0,0 +1,230 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett
+ *
+ * Copyright 2015 The Genome Analysis Centre (TGAC)
+ */
+
+package nanook;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded work queue for the parser pool which hands out the most expensive
+ * queued read first. Reads range from a few hundred bases to hundreds of
+ * kilobases, so with plain FIFO order a long read found near the end can
+ * leave one thread parsing it while the others are idle. Starting big reads
+ * first shortens that tail. Only queued reads are ordered, so the queue stays
+ * bounded and reads are still parsed while the directory is being scanned.
+ *
+ * @author Richard Leggett
+ */
+public class ParserQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    private final PriorityQueue<Runnable> queue;
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * Orders ParserRunnables by cost, largest first. Anything else counts as
+     * zero cost.
+     */
+    private static class CostComparator implements Comparator<Runnable> {
+        private long getCost(Runnable r) {
+            return (r instanceof ParserRunnable) ? ((ParserRunnable)r).getCost() : 0;
+        }
+
+        public int compare(Runnable a, Runnable b) {
+            return Long.compare(getCost(b), getCost(a));
+        }
+    }
+
+    /**
+     * Constructor
+     * @param c maximum number of queued tasks
+     */
+    public ParserQueue(int c) {
+        capacity = c;
+        queue = new PriorityQueue<Runnable>(c, new CostComparator());
+    }
+
+    /**
+     * Remove head of queue. Lock must be held.
+     * @return task
+     */
+    private Runnable dequeue() {
+        Runnable r = queue.poll();
+        notFull.signal();
+        return r;
+    }
+
+    public boolean offer(Runnable r) {
+        lock.lock();
+        try {
+            if (queue.size() >= capacity) {
+                return false;
+            }
+            queue.add(r);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean offer(Runnable r, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            queue.add(r);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Add a task, waiting for space if the queue is full.
+     * @param r task
+     */
+    public void put(Runnable r) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() >= capacity) {
+                notFull.await();
+            }
+            queue.add(r);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return (queue.size() == 0) ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Runnable peek() {
+        lock.lock();
+        try {
+            return queue.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            boolean removed = queue.remove(o);
+            if (removed) {
+                notFull.signal();
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        lock.lock();
+        try {
+            int n = 0;
+            while ((n < maxElements) && (queue.size() > 0)) {
+                c.add(queue.poll());
+                n++;
+            }
+            if (n > 0) {
+                notFull.signalAll();
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Iterate over a snapshot of the queue, in no particular order.
+     * @return Iterator
+     */
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            return new ArrayList<Runnable>(queue).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -27,8 +27,22 @@ public class ParserRunnable implements Runnable
     private SequenceReader sr;
     private int type;
     private int passfail;
+    private long cost;
+    private long startTime = -1;
+    private int channel = -1;
 
-    public ParserRunnable(NanoOKOptions o, ReadSetStats s, String rp, String ap, int t, int pf, AlignmentsTableFile nas) {
+    /**
+     * Constructor
+     * @param o NanoOKOptions object
+     * @param s stats to add read to
+     * @param rp read filename
+     * @param ap alignment filename
+     * @param t read type
+     * @param pf pass/fail type
+     * @param nas file for reads without alignments
+     * @param c expected cost of parsing, used to schedule big reads first
+     */
+    public ParserRunnable(NanoOKOptions o, ReadSetStats s, String rp, String ap, int t, int pf, AlignmentsTableFile nas, long c) {
         options = o;
         readPath = rp;
         alignmentPath = ap;
@@ -36,6 +50,16 @@ public class ParserRunnable implements Runnable
         type = t;
         passfail = pf;
         nonAlignedSummary = nas;
+        cost = c;
+        channel = ReadChannelStats.parseChannel(new File(rp).getName());
+    }
+    
+    /**
+     * Get expected cost of parsing this read.
+     * @return cost (read file size)
+     */
+    public long getCost() {
+        return cost;
     }
 
     /**
@@ -79,9 +103,11 @@ public class ParserRunnable implements Runnable
             File file = new File(alignmentPath);
             AlignmentFileParser parser = options.getParser();
 
-            options.getLog().println("");
-            options.getLog().println("> New file " + file.getName());
-            options.getLog().println("");
+            if (options.getLog().isLogging(NanoOKLog.LOG_DEBUG)) {
+                options.getLog().println(NanoOKLog.LOG_DEBUG, "");
+                options.getLog().println(NanoOKLog.LOG_DEBUG, "> New file " + file.getName());
+                options.getLog().println(NanoOKLog.LOG_DEBUG, "");
+            }
 
             int nAlignments = parser.parseFile(alignmentPath, nonAlignedSummary, stats);
 
@@ -91,8 +117,10 @@ public class ParserRunnable implements Runnable
                 int topAlignment = pickTopAlignment(al);
                 String readReferenceName = al.get(topAlignment).getHitName();
 
-                options.getLog().println("Query size = " + al.get(topAlignment).getQuerySequenceSize());
-                options.getLog().println("  Hit size = " + al.get(topAlignment).getHitSequenceSize());
+                if (options.getLog().isLogging(NanoOKLog.LOG_DEBUG)) {
+                    options.getLog().println(NanoOKLog.LOG_DEBUG, "Query size = " + al.get(topAlignment).getQuerySequenceSize());
+                    options.getLog().println(NanoOKLog.LOG_DEBUG, "  Hit size = " + al.get(topAlignment).getHitSequenceSize());
+                }
 
                 readReference = options.getReferences().getReferenceById(readReferenceName);
                 AlignmentMerger merger = new AlignmentMerger(options, readReference, al.get(topAlignment).getQuerySequenceSize(), stats, stats.getType());
@@ -101,12 +129,18 @@ public class ParserRunnable implements Runnable
                     merger.addAlignment(a);
                 }
                 AlignmentInfo ais = merger.endMergeAndStoreStats();
+                if (startTime >= 0) {
+                    stats.getTimeStats().addAlignment(startTime, ais);
+                }
+                if (channel > 0) {
+                    stats.getChannelStats().addAlignment(channel, ais);
+                }
                 readReference.getStatsByType(stats.getType()).getAlignmentsTableFile().writeMergedAlignment(stats, file.getName(), merger, ais);
             }
         } catch (Exception e) {
             System.out.println("Error parsing alignment "+ alignmentPath);
             options.setReturnValue(1);
-            options.getLog().println("Error parsing alignment " + alignmentPath);
+            options.getLog().println(NanoOKLog.LOG_ERROR, "Error parsing alignment " + alignmentPath);
             e.printStackTrace();
         }
     }
@@ -140,6 +174,16 @@ public class ParserRunnable implements Runnable
             }
             
             stats.addLength(readPath, id, sr.getLength(i), sr.getGC(i));
+            
+            if (i == 0) {
+                startTime = sr.getStartTime(i);
+                if (startTime >= 0) {
+                    stats.getTimeStats().addRead(startTime, sr.getLength(i));
+                }
+                if (channel > 0) {
+                    stats.getChannelStats().addRead(channel, sr.getLength(i));
+                }
+            }
         }
     }
 
@@ -151,7 +195,7 @@ public class ParserRunnable implements Runnable
         stats.addReadFile(passfail);
         parseAlignment();
         if ((readReference != null) && (options.doKmerCounting())) {
-            sr.storeKmers(0, readReference.getStatsByType(type).getReadKmerTable());
+            sr.storeKmers(0, readReference.getStatsByType(type).getThreadReadKmerTable());
         }
     }
 }
@@ -0,0 +1,319 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett
+ *
+ * Copyright 2015 The Genome Analysis Centre (TGAC)
+ */
+
+package nanook;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-base pileup of match, mismatch, insertion and deletion counts for one
+ * reference sequence and read type. Counts are held in fixed-size pages which
+ * are allocated when first touched. Once the pages in memory across all
+ * pileups reach the memory budget (set by -pileupmemory, by default a quarter
+ * of the maximum heap), the least recently used page is added into its pileup
+ * file on disk and dropped, so memory is bounded whatever the reference size
+ * or number of references. Pages in memory are kept in access order, so
+ * finding the page to spill doesn't depend on the number of pages. Reads
+ * arrive in no particular order, so a page may be spilled several times; the
+ * file always holds the sum. Files are only opened while a page is spilled,
+ * as there is a pileup per reference and type.
+ *
+ * The file is the binary export: a header (magic, version, sequence size,
+ * number of fields) followed by N_FIELDS big-endian ints per position.
+ *
+ * @author Richard Leggett
+ */
+public class PileupTable {
+    public final static int MATCH = 0;
+    public final static int MISMATCH = 1;
+    public final static int INSERTION = 2;
+    public final static int DELETION = 3;
+    public final static int REVERSE = 4;
+    public final static int N_FIELDS = 5;
+    public final static int MAGIC = 0x4E4B5055;
+    public final static int VERSION = 1;
+    public final static int HEADER_SIZE = 16;
+    public final static int MIN_SUMMARY_DEPTH = 10;
+    private final static int PAGE_BITS = 16;
+    private final static int PAGE_SIZE = 1 << PAGE_BITS;
+    private final static long PAGE_BYTES = (long)PAGE_SIZE * N_FIELDS * 4;
+    private final static int MIN_RESIDENT_PAGES = 16;
+    private final static Object residentLock = new Object();
+    private final static LinkedHashMap<Page,Page> resident = new LinkedHashMap<Page,Page>(1024, 0.75f, true);
+    private static int maxResidentPages = pagesForMemory(Runtime.getRuntime().maxMemory() / 4);
+    private int size;
+    private String filename;
+    private Page[] pages;
+
+    /**
+     * A page of counts. Null counts means nothing held in memory, in which
+     * case the page isn't in the resident map.
+     */
+    private static class Page {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final PileupTable table;
+        private final int number;
+        private int[] counts = null;
+
+        private Page(PileupTable t, int n) {
+            table = t;
+            number = n;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param s size (length) of reference sequence
+     * @param f pileup filename
+     */
+    public PileupTable(int s, String f) {
+        size = s;
+        filename = f;
+        pages = new Page[(int)(((long)size + PAGE_SIZE - 1) >> PAGE_BITS)];
+        for (int i=0; i<pages.length; i++) {
+            pages[i] = new Page(this, i);
+        }
+
+        try {
+            RandomAccessFile raf = new RandomAccessFile(filename, "rw");
+            raf.setLength(0);
+            raf.writeInt(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeInt(size);
+            raf.writeInt(N_FIELDS);
+            raf.setLength(HEADER_SIZE + ((long)size * N_FIELDS * 4));
+            raf.close();
+        } catch (IOException e) {
+            System.out.println("PileupTable exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static int pagesForMemory(long bytes) {
+        return (int)Math.max(MIN_RESIDENT_PAGES, Math.min(Integer.MAX_VALUE, bytes / PAGE_BYTES));
+    }
+
+    /**
+     * Set memory used by pages of all pileups. Should be called before any
+     * events are added.
+     * @param megabytes memory in MB
+     */
+    public static void setMemory(long megabytes) {
+        synchronized(residentLock) {
+            maxResidentPages = pagesForMemory(megabytes * 1024 * 1024);
+        }
+    }
+
+    /**
+     * Add a page's counts into the file. Caller must hold the page lock.
+     * @param p page number
+     */
+    private void spillPage(int p) throws IOException {
+        int[] counts = pages[p].counts;
+        int firstPos = p << PAGE_BITS;
+        int nPos = Math.min(PAGE_SIZE, size - firstPos);
+        long offset = HEADER_SIZE + ((long)firstPos * N_FIELDS * 4);
+        ByteBuffer bb = ByteBuffer.allocate(nPos * N_FIELDS * 4);
+        RandomAccessFile raf = new RandomAccessFile(filename, "rw");
+
+        try {
+            FileChannel channel = raf.getChannel();
+
+            while (bb.hasRemaining()) {
+                if (channel.read(bb, offset + bb.position()) < 0) {
+                    break;
+                }
+            }
+            bb.flip();
+
+            IntBuffer ib = bb.asIntBuffer();
+            for (int i=0; i<nPos * N_FIELDS; i++) {
+                ib.put(i, ib.get(i) + counts[i]);
+            }
+
+            bb.rewind();
+            while (bb.hasRemaining()) {
+                channel.write(bb, offset + bb.position());
+            }
+        } finally {
+            raf.close();
+        }
+
+        pages[p].counts = null;
+    }
+
+    /**
+     * Mark a page in memory as most recently used.
+     * @param page page
+     */
+    private static void touchPage(Page page) {
+        synchronized(residentLock) {
+            resident.get(page);
+        }
+    }
+
+    /**
+     * Add a page to the pages in memory, first making room for it by spilling
+     * the least recently used page, in any pileup, that isn't busy. Caller
+     * must hold the page lock.
+     * @param page page about to be allocated
+     */
+    private static void addResidentPage(Page page) throws IOException {
+        Page victim = null;
+
+        synchronized(residentLock) {
+            if (resident.size() >= maxResidentPages) {
+                // Oldest first - usually the first page is idle
+                Iterator<Page> it = resident.keySet().iterator();
+                while (it.hasNext()) {
+                    Page p = it.next();
+                    if (p.lock.tryLock()) {
+                        victim = p;
+                        it.remove();
+                        break;
+                    }
+                }
+                // If every page is busy, go over the budget for now
+            }
+            resident.put(page, page);
+        }
+
+        if (victim != null) {
+            try {
+                victim.table.spillPage(victim.number);
+            } finally {
+                victim.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Add events from one alignment. Positions must be in increasing order,
+     * so each page is locked once per run of events on it.
+     * @param positions reference positions
+     * @param events event types (MATCH, MISMATCH, INSERTION, DELETION)
+     * @param n number of events
+     * @param reverse true if the read aligned to the reverse strand
+     */
+    public void addEvents(int[] positions, byte[] events, int n, boolean reverse) {
+        int i = 0;
+
+        try {
+            while (i < n) {
+                if ((positions[i] < 0) || (positions[i] >= size)) {
+                    i++;
+                    continue;
+                }
+
+                int p = positions[i] >>> PAGE_BITS;
+                Page page = pages[p];
+                page.lock.lock();
+                try {
+                    int[] counts = page.counts;
+                    if (counts == null) {
+                        addResidentPage(page);
+                        counts = new int[Math.min(PAGE_SIZE, size - (p << PAGE_BITS)) * N_FIELDS];
+                        page.counts = counts;
+                    } else {
+                        touchPage(page);
+                    }
+
+                    while ((i < n) && (positions[i] >= 0) && (positions[i] < size) && ((positions[i] >>> PAGE_BITS) == p)) {
+                        int offset = (positions[i] & (PAGE_SIZE - 1)) * N_FIELDS;
+                        counts[offset + events[i]]++;
+                        if (reverse && (events[i] != INSERTION)) {
+                            counts[offset + REVERSE]++;
+                        }
+                        i++;
+                    }
+                } finally {
+                    page.lock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("PileupTable exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Spill all pages, so the binary file holds all counts so far. Parsers
+     * must be idle. More events can be added afterwards, e.g. when watching.
+     */
+    public void flush() {
+        try {
+            for (int p=0; p<pages.length; p++) {
+                pages[p].lock.lock();
+                try {
+                    if (pages[p].counts != null) {
+                        synchronized(residentLock) {
+                            resident.remove(pages[p]);
+                        }
+                        spillPage(p);
+                    }
+                } finally {
+                    pages[p].lock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("PileupTable exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Write positions with a high error rate, streaming from the binary file.
+     * @param summaryFilename output filename
+     * @param threshold minimum proportion of mismatch, insertion or deletion
+     */
+    public void writeSummary(String summaryFilename, double threshold) {
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 16));
+            PrintWriter pw = new PrintWriter(new FileWriter(summaryFilename));
+            int[] c = new int[N_FIELDS];
+
+            dis.skipBytes(HEADER_SIZE);
+            pw.println("Position\tDepth\tMatch\tMismatch\tInsertion\tDeletion\tReverse\tErrorRate");
+            for (int i=0; i<size; i++) {
+                for (int f=0; f<N_FIELDS; f++) {
+                    c[f] = dis.readInt();
+                }
+
+                int depth = c[MATCH] + c[MISMATCH] + c[DELETION];
+                if (depth >= MIN_SUMMARY_DEPTH) {
+                    double errorRate = (double)(c[MISMATCH] + c[INSERTION] + c[DELETION]) / (double)(depth + c[INSERTION]);
+                    if (errorRate >= threshold) {
+                        pw.printf("%d\t%d\t%d\t%d\t%d\t%d\t%d\t%.4f", i, depth, c[MATCH], c[MISMATCH], c[INSERTION], c[DELETION], c[REVERSE], errorRate);
+                        pw.println("");
+                    }
+                }
+            }
+
+            pw.close();
+            dis.close();
+        } catch (IOException e) {
+            System.out.println("PileupTable exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
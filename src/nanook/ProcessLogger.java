@@ -14,6 +14,7 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.lang.ProcessBuilder.Redirect;
 import java.util.ArrayList;
+import java.util.concurrent.Semaphore;
 
 /**
  * Execute a system process and log result to a file
@@ -21,13 +22,44 @@ import java.util.ArrayList;
  * @author Richard Leggett
  */
 public class ProcessLogger {
+    private static Semaphore processSlots = new Semaphore(1, true);
     private boolean writeStdio = true;
     private boolean writeStderr = true;
     private boolean writeHeadings = true;
     
+    /**
+     * Set maximum number of external processes to run at once, across all
+     * threads. Call before any processes are started.
+     * @param n maximum number of processes
+     */
+    public static void setMaxProcesses(int n) {
+        processSlots = new Semaphore(n, true);
+    }
+    
+    /**
+     * Wait for a free process slot. Must be followed by releaseProcessSlot.
+     */
+    public static void acquireProcessSlot() throws InterruptedException {
+        processSlots.acquire();
+    }
+    
+    /**
+     * Release a process slot.
+     */
+    public static void releaseProcessSlot() {
+        processSlots.release();
+    }
+    
     public ArrayList getCommandOutput(String command, boolean stdin, boolean stderr) {
         ArrayList outputLines = new ArrayList();
         
+        try {
+            acquireProcessSlot();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return outputLines;
+        }
+        
         try {
             Process p = Runtime.getRuntime().exec(command);
             
@@ -50,7 +82,9 @@ public class ProcessLogger {
             System.out.println("ProcessLogger exception:");
             e.printStackTrace();
             System.exit(1);
-        } 
+        } finally {
+            releaseProcessSlot();
+        }
             
         return outputLines;
     }
@@ -138,9 +172,14 @@ public class ProcessLogger {
     
     public void runAndLogCommand(String command, String logFilename, boolean fAppend) {
         try {         
-            Process p = Runtime.getRuntime().exec(command); 
-            writeLog(p, command, logFilename, fAppend);
-            p.waitFor();
+            acquireProcessSlot();
+            try {
+                Process p = Runtime.getRuntime().exec(command); 
+                writeLog(p, command, logFilename, fAppend);
+                p.waitFor();
+            } finally {
+                releaseProcessSlot();
+            }
         } catch (Exception e) {
             System.out.println("ProcessLogger exception:");
             e.printStackTrace();
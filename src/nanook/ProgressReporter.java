@@ -0,0 +1,241 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett
+ *
+ * Copyright 2015 The Genome Analysis Centre (TGAC)
+ */
+
+package nanook;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress of a stage run on a thread pool. The console shows a progress bar
+ * with throughput, ETA and queue depth. If a status file was given, a JSON
+ * snapshot is also written to it at intervals and when the stage ends, for
+ * workflow managers to poll. The snapshot is written to a temporary file and
+ * renamed, so readers never see a partial file.
+ *
+ * @author Richard Leggett
+ */
+public class ProgressReporter {
+    private final static long STATUS_INTERVAL = 5000;
+    private NanoOKOptions options;
+    private String stage;
+    private String prefix;
+    private ThreadPoolExecutor executor;
+    private ArrayList<ReadSetStats> stats = new ArrayList<ReadSetStats>();
+    private long startTime = System.currentTimeMillis();
+    private long lastCompleted = -1;
+    private long lastStatusTime = 0;
+    private boolean finished = false;
+
+    /**
+     * Constructor
+     * @param o NanoOKOptions object
+     * @param s stage name, used in the status file
+     * @param p prefix for the progress bar, or empty string
+     * @param e thread pool running the stage
+     */
+    public ProgressReporter(NanoOKOptions o, String s, String p, ThreadPoolExecutor e) {
+        options = o;
+        stage = s;
+        prefix = p;
+        executor = e;
+    }
+
+    /**
+     * Count reads and bases in a read set towards throughput.
+     * @param s ReadSetStats object
+     */
+    public synchronized void addStats(ReadSetStats s) {
+        stats.add(s);
+        MetricsServer.addStats(s);
+    }
+
+    private synchronized long getReads() {
+        long n = 0;
+        for (int i=0; i<stats.size(); i++) {
+            n += stats.get(i).getNumReads();
+        }
+        return n;
+    }
+
+    private synchronized long getBases() {
+        long n = 0;
+        for (int i=0; i<stats.size(); i++) {
+            n += stats.get(i).getTotalBases();
+        }
+        return n;
+    }
+
+    /**
+     * Format a number of seconds as hh:mm:ss.
+     * @param s seconds
+     * @return String
+     */
+    private String formatTime(long s) {
+        return String.format("%02d:%02d:%02d", s / 3600, (s / 60) % 60, s % 60);
+    }
+
+    /**
+     * Print progress bar, if anything has completed since last time, and
+     * write status file if due. Also makes this the stage reported by the
+     * metrics server.
+     */
+    public synchronized void update() {
+        long completed = executor.getCompletedTaskCount();
+        long total = executor.getTaskCount();
+        long now = System.currentTimeMillis();
+        double seconds = (now - startTime) / 1000.0;
+        double rate = seconds > 0 ? completed / seconds : 0;
+        long eta = rate > 0 ? (long)((total - completed) / rate) : -1;
+
+        if (completed != lastCompleted) {
+            long e = 0;
+            long s = NanoOKOptions.PROGRESS_WIDTH;
+
+            if (total > 0) {
+                e = NanoOKOptions.PROGRESS_WIDTH * completed / total;
+                s = NanoOKOptions.PROGRESS_WIDTH - e;
+            }
+
+            StringBuilder sb = new StringBuilder("\r" + prefix + "[");
+            for (int i=0; i<e; i++) {
+                sb.append('=');
+            }
+            for (int i=0; i<s; i++) {
+                sb.append(' ');
+            }
+            sb.append("] " + completed + "/" + total);
+            sb.append(String.format(" %.1f files/s", rate));
+            if (stats.size() > 0) {
+                sb.append(String.format(" %.1f kb/s", seconds > 0 ? getBases() / seconds / 1000.0 : 0));
+            }
+            if (!finished) {
+                sb.append(" ETA " + (eta >= 0 ? formatTime(eta) : "--:--:--"));
+                sb.append(" queued " + executor.getQueue().size());
+            }
+            sb.append("   ");
+            System.out.print(sb.toString());
+            lastCompleted = completed;
+        }
+
+        MetricsServer.setProgress(this);
+        
+        if (finished || (now - lastStatusTime >= STATUS_INTERVAL)) {
+            writeStatusFile();
+            lastStatusTime = now;
+        }
+    }
+
+    /**
+     * Get stage progress as a JSON object.
+     * @param indent indent for each line
+     * @return JSON
+     */
+    public synchronized String toJSON(String indent) {
+        long completed = executor.getCompletedTaskCount();
+        long total = executor.getTaskCount();
+        double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+        double rate = seconds > 0 ? completed / seconds : 0;
+        long eta = finished ? 0 : (rate > 0 ? (long)((total - completed) / rate) : -1);
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("{\n");
+        sb.append(indent + "  \"stage\": \"" + stage + "\",\n");
+        sb.append(indent + "  \"state\": \"" + (finished ? "finished" : "running") + "\",\n");
+        sb.append(indent + "  \"completed\": " + completed + ",\n");
+        sb.append(indent + "  \"total\": " + total + ",\n");
+        sb.append(indent + "  \"queued\": " + executor.getQueue().size() + ",\n");
+        sb.append(indent + "  \"active\": " + executor.getActiveCount() + ",\n");
+        sb.append(indent + String.format("  \"elapsedSeconds\": %.1f,\n", seconds));
+        sb.append(indent + String.format("  \"filesPerSecond\": %.2f,\n", rate));
+        if (stats.size() > 0) {
+            long reads = getReads();
+            long bases = getBases();
+            sb.append(indent + "  \"reads\": " + reads + ",\n");
+            sb.append(indent + "  \"bases\": " + bases + ",\n");
+            sb.append(indent + String.format("  \"readsPerSecond\": %.2f,\n", seconds > 0 ? reads / seconds : 0));
+            sb.append(indent + String.format("  \"basesPerSecond\": %.2f,\n", seconds > 0 ? bases / seconds : 0));
+        }
+        sb.append(indent + "  \"etaSeconds\": " + eta + ",\n");
+        sb.append(indent + "  \"updated\": " + System.currentTimeMillis() + "\n");
+        sb.append(indent + "}");
+
+        return sb.toString();
+    }
+
+    /**
+     * Add stage progress to Prometheus text output.
+     * @param sb output
+     */
+    public synchronized void appendPrometheus(StringBuilder sb) {
+        String label = "{stage=\"" + stage + "\"}";
+        double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+
+        sb.append("# HELP nanook_stage_tasks_completed Tasks completed in the current stage\n");
+        sb.append("# TYPE nanook_stage_tasks_completed gauge\n");
+        sb.append("nanook_stage_tasks_completed" + label + " " + executor.getCompletedTaskCount() + "\n");
+        sb.append("# HELP nanook_stage_tasks Tasks found so far in the current stage\n");
+        sb.append("# TYPE nanook_stage_tasks gauge\n");
+        sb.append("nanook_stage_tasks" + label + " " + executor.getTaskCount() + "\n");
+        sb.append("# HELP nanook_stage_tasks_queued Tasks waiting for a thread\n");
+        sb.append("# TYPE nanook_stage_tasks_queued gauge\n");
+        sb.append("nanook_stage_tasks_queued" + label + " " + executor.getQueue().size() + "\n");
+        sb.append("# HELP nanook_stage_threads_active Threads running a task\n");
+        sb.append("# TYPE nanook_stage_threads_active gauge\n");
+        sb.append("nanook_stage_threads_active" + label + " " + executor.getActiveCount() + "\n");
+        sb.append("# HELP nanook_stage_elapsed_seconds Time since the current stage started\n");
+        sb.append("# TYPE nanook_stage_elapsed_seconds gauge\n");
+        sb.append("nanook_stage_elapsed_seconds" + label + " " + String.format("%.1f", seconds) + "\n");
+    }
+
+    /**
+     * Write JSON status file, if one was asked for.
+     */
+    private void writeStatusFile() {
+        String filename = options.getStatusFile();
+
+        if (filename == null) {
+            return;
+        }
+
+        try {
+            File tmp = new File(filename + ".tmp");
+            PrintWriter pw = new PrintWriter(new FileWriter(tmp));
+            pw.println(toJSON(""));
+            pw.close();
+
+            File f = new File(filename);
+            if (!tmp.renameTo(f)) {
+                f.delete();
+                tmp.renameTo(f);
+            }
+        } catch (IOException e) {
+            System.out.println("Warning: can't write status file " + filename);
+        }
+    }
+
+    /**
+     * Wait for the (already shut down) thread pool to finish, updating
+     * progress as tasks complete, then write final progress.
+     */
+    public void waitForCompletion() throws InterruptedException {
+        while (!executor.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+            update();
+        }
+
+        synchronized(this) {
+            finished = true;
+            update();
+        }
+        System.out.println("");
+    }
+}
@@ -23,7 +23,7 @@ import java.util.concurrent.TimeUnit;
 public class RGraphPlotter {
     private ThreadPoolExecutor executor;
     private NanoOKOptions options;
-    private long lastCompleted = -1;
+    private ProgressReporter progress;
     private String logDirectory;
 
     /**
@@ -32,7 +32,8 @@ public class RGraphPlotter {
      */
     public RGraphPlotter(NanoOKOptions o) {
         options = o;
-        executor = new ThreadPoolExecutor(options.getNumberOfThreads(), options.getNumberOfThreads(), 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor = new ThreadPoolExecutor(options.getNumberOfIOThreads(), options.getNumberOfIOThreads(), 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        progress = new ProgressReporter(options, "plot", "", executor);
         logDirectory = options.getLogsDir() + File.separator + "R";
         File f = new File(logDirectory);
         if (!f.exists()) {
@@ -40,34 +41,6 @@ public class RGraphPlotter {
         }
     }
         
-    /**
-     * Write progress
-     */
-    private void writeProgress() {
-        long completed = executor.getCompletedTaskCount();
-        long total = executor.getTaskCount();
-        long e = 0;
-        long s = NanoOKOptions.PROGRESS_WIDTH;
-        
-        if (total > 0) {
-            e = NanoOKOptions.PROGRESS_WIDTH * completed / total;
-            s = NanoOKOptions.PROGRESS_WIDTH - e;
-        }
-        
-        
-        if (completed != lastCompleted) {              
-            System.out.print("\r[");
-            for (int i=0; i<e; i++) {
-                System.out.print("=");
-            }
-            for (int i=0; i<s; i++) {
-                System.out.print(" ");
-            }
-            System.out.print("] " + completed +"/" +  total);
-            lastCompleted = completed;
-        }
-    } 
-    
     public void runScript(boolean fComparison, String scriptName, String logPrefix, String refName) {
         ArrayList<String> args = new ArrayList<String>();
         String logFilename = logDirectory + File.separator + logPrefix;
@@ -90,7 +63,7 @@ public class RGraphPlotter {
         args.add(options.getImageFormat());
                 
         executor.execute(new RGraphRunnable("Rscript", args, logFilename + ".txt"));
-        writeProgress();
+        progress.update();
     }
     
     /**
@@ -117,17 +90,11 @@ public class RGraphPlotter {
                     runScript(fComparison, "nanook_plot_reference.R", "plot_reference", name);
                 }
             }
-            writeProgress();
+            progress.update();
         }          
         
         // That's all - wait for all threads to finish
         executor.shutdown();
-        while (!executor.isTerminated()) {
-            writeProgress();
-            Thread.sleep(100);
-        }        
-
-        writeProgress();
-        System.out.println("");
+        progress.waitForCompletion();
     }    
 }
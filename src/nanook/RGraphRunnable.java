@@ -57,8 +57,13 @@ public class RGraphRunnable implements Runnable {
             ProcessBuilder pb = new ProcessBuilder(args);
             pb.redirectErrorStream(true);
             pb.redirectOutput(ProcessBuilder.Redirect.to(new File(logFilename))); //appendTo
-            Process p = pb.start();
-            p.waitFor();
+            ProcessLogger.acquireProcessSlot();
+            try {
+                Process p = pb.start();
+                p.waitFor();
+            } finally {
+                ProcessLogger.releaseProcessSlot();
+            }
             checkLogForErrors(logFilename);
         } catch (Exception e) {
             System.out.println("RGraphRunnable exception:");
@@ -9,7 +9,13 @@ package nanook;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.concurrent.*;
 
@@ -22,7 +28,7 @@ public class ReadAligner {
     private NanoOKOptions options;
     private AlignmentFileParser parser;
     private ThreadPoolExecutor executor;
-    private long lastCompleted = -1;
+    private ProgressReporter progress;
     
     /**
      * Constructor
@@ -32,36 +38,10 @@ public class ReadAligner {
         options = o;
         parser = afp;
         
-        executor = new ThreadPoolExecutor(options.getNumberOfThreads(), options.getNumberOfThreads(), 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor = new ThreadPoolExecutor(options.getNumberOfIOThreads(), options.getNumberOfIOThreads(), 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        progress = new ProgressReporter(options, "align", "Alignment ", executor);
     }
     
-    /**
-     * Write progress
-     */
-    private void writeProgress() {
-        long completed = executor.getCompletedTaskCount();
-        long total = executor.getTaskCount();
-        long e = 0;
-        long s = NanoOKOptions.PROGRESS_WIDTH;
-        
-        if (total > 0) {
-            e = NanoOKOptions.PROGRESS_WIDTH * completed / total;
-            s = NanoOKOptions.PROGRESS_WIDTH - e;
-        }
-        
-        if (completed != lastCompleted) {              
-            System.out.print("\rAlignment [");
-            for (int i=0; i<e; i++) {
-                System.out.print("=");
-            }
-            for (int i=0; i<s; i++) {
-                System.out.print(" ");
-            }
-            System.out.print("] " + completed +"/" +  total);
-            lastCompleted = completed;
-        }
-    }    
-    
     private void checkAndMakeDir(String dir) {
         File f = new File(dir);
         if (f.exists()) {
@@ -126,45 +106,54 @@ public class ReadAligner {
             
             checkAndMakeDir(outputDirName);
             
-            File inputDir = new File(inputDirName);
-            File[] listOfFiles = inputDir.listFiles();
+            int nEntries = 0;
+            int readCount = 0;
 
-            if (listOfFiles == null) {
-                System.out.println("");
-                System.out.println("Directory "+inputDirName+" doesn't exist");
-            } else if (listOfFiles.length <= 0) {
-                System.out.println("");
-                System.out.println("Directory "+inputDirName+" empty");
-            } else {
-                int readCount = 0;
-                for (File file : listOfFiles) {
-                    if (file.isFile()) {
-                        if (isValidReadFile(file.getName())) {
-                            String inPath = inputDirName + File.separator + file.getName();
-                            String outPath = outputDirName + File.separator + file.getName() + parser.getAlignmentFileExtension();
-                            String logFile = logDirName + File.separator + file.getName() + ".log";
+            try {
+                DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(inputDirName));
+                try {
+                    for (Path path : stream) {
+                        String name = path.getFileName().toString();
+                        nEntries++;
+                        if (isValidReadFile(name) && Files.isRegularFile(path)) {
+                            String inPath = inputDirName + File.separator + name;
+                            String outPath = outputDirName + File.separator + name + parser.getAlignmentFileExtension();
+                            String logFile = logDirName + File.separator + name + ".log";
                             String command = parser.getRunCommand(inPath, outPath, reference);                            
                             if (options.showAlignerCommand()) {
                                 System.out.println("Running: " + command);
                             }
                             executor.execute(new SystemCommandRunnable(options, null, command, parser.outputsToStdout() ? outPath:null, logFile));
-                            writeProgress();
+                            progress.update();
                             readCount++;
                         }
                     }
+                } finally {
+                    stream.close();
                 }
-                
-                if (readCount == 0) {
-                    System.out.print("Error: unable to find any ");
-                    if (parser.getReadFormat() == NanoOKOptions.FASTA) {
-                        System.out.print("FASTA");
-                    } else if (parser.getReadFormat() == NanoOKOptions.FASTQ) {
-                        System.out.print("FASTQ");
-                    }
-                    System.out.println(" files to align");
-                    System.out.println("");
-                    System.exit(1);
+            } catch (NoSuchFileException e) {
+                System.out.println("");
+                System.out.println("Directory "+inputDirName+" doesn't exist");
+                continue;
+            } catch (IOException e) {
+                System.out.println("");
+                System.out.println("Error reading directory "+inputDirName+": "+e.getMessage());
+                continue;
+            }
+
+            if (nEntries == 0) {
+                System.out.println("");
+                System.out.println("Directory "+inputDirName+" empty");
+            } else if (readCount == 0) {
+                System.out.print("Error: unable to find any ");
+                if (parser.getReadFormat() == NanoOKOptions.FASTA) {
+                    System.out.print("FASTA");
+                } else if (parser.getReadFormat() == NanoOKOptions.FASTQ) {
+                    System.out.print("FASTQ");
                 }
+                System.out.println(" files to align");
+                System.out.println("");
+                System.exit(1);
             }
         }
     }
@@ -188,13 +177,7 @@ public class ReadAligner {
         
         // That's all - wait for all threads to finish
         executor.shutdown();
-        while (!executor.isTerminated()) {
-            writeProgress();
-            Thread.sleep(100);
-        }        
-
-        writeProgress();
-        System.out.println("");
+        progress.waitForCompletion();
         System.out.println("");
         System.out.println("DONE");
     }
@@ -0,0 +1,133 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett
+ *
+ * Copyright 2015 The Genome Analysis Centre (TGAC)
+ */
+
+package nanook;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Read set statistics by MinION channel, to spot dead or noisy pores. The
+ * channel comes from the read filename (e.g. _ch37_file38_). Counts are held
+ * in arrays indexed by channel, so adding a read doesn't allocate.
+ *
+ * @author Richard Leggett
+ */
+public class ReadChannelStats implements Serializable {
+    private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
+    public final static int MAX_CHANNELS = 512;
+    public final static int GRID_COLUMNS = 32;
+    private final static Pattern channelPattern = Pattern.compile("_ch(\\d+)_file");
+    private AtomicLongArray nReads = new AtomicLongArray(MAX_CHANNELS + 1);
+    private AtomicLongArray nBases = new AtomicLongArray(MAX_CHANNELS + 1);
+    private AtomicLongArray nAligned = new AtomicLongArray(MAX_CHANNELS + 1);
+    private AtomicLongArray alignedColumns = new AtomicLongArray(MAX_CHANNELS + 1);
+    private AtomicLongArray identicalBases = new AtomicLongArray(MAX_CHANNELS + 1);
+
+    /**
+     * Get channel from a read filename.
+     * @param filename read filename or path
+     * @return channel, or -1 if not found or out of range
+     */
+    public static int parseChannel(String filename) {
+        Matcher m = channelPattern.matcher(filename);
+        int channel = -1;
+
+        while (m.find()) {
+            try {
+                channel = Integer.parseInt(m.group(1));
+            } catch (NumberFormatException e) {
+                channel = -1;
+            }
+        }
+
+        return ((channel >= 1) && (channel <= MAX_CHANNELS)) ? channel : -1;
+    }
+
+    /**
+     * Add a read.
+     * @param channel channel number
+     * @param length read length
+     */
+    public void addRead(int channel, int length) {
+        nReads.incrementAndGet(channel);
+        nBases.addAndGet(channel, length);
+    }
+
+    /**
+     * Add a read's alignment.
+     * @param channel channel number
+     * @param ais alignment stats of read
+     */
+    public void addAlignment(int channel, AlignmentInfo ais) {
+        nAligned.incrementAndGet(channel);
+        alignedColumns.addAndGet(channel, ais.getAlignmentSize());
+        identicalBases.addAndGet(channel, ais.getIdenticalBases());
+    }
+
+    /**
+     * Add counts from another ReadChannelStats, e.g. from one shard.
+     * @param c ReadChannelStats to merge in
+     */
+    public void merge(ReadChannelStats c) {
+        for (int i=0; i<=MAX_CHANNELS; i++) {
+            nReads.addAndGet(i, c.nReads.get(i));
+            nBases.addAndGet(i, c.nBases.get(i));
+            nAligned.addAndGet(i, c.nAligned.get(i));
+            alignedColumns.addAndGet(i, c.alignedColumns.get(i));
+            identicalBases.addAndGet(i, c.identicalBases.get(i));
+        }
+    }
+
+    /**
+     * Check if any reads had a channel.
+     * @return true if there are stats
+     */
+    public boolean hasChannels() {
+        for (int i=1; i<=MAX_CHANNELS; i++) {
+            if (nReads.get(i) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write stats, one line per channel including channels with no reads.
+     * Row and Column place channels on a 16 x 32 grid for plotting as a
+     * heatmap.
+     * @param filename output filename
+     */
+    public void writeFile(String filename) {
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(filename));
+            pw.println("Channel\tRow\tColumn\tReads\tBases\tAlignedReads\tIdentity");
+            for (int i=1; i<=MAX_CHANNELS; i++) {
+                long columns = alignedColumns.get(i);
+                double identity = 0;
+
+                if (columns > 0) {
+                    identity = 100.0 * (double)identicalBases.get(i) / (double)columns;
+                }
+
+                pw.printf("%d\t%d\t%d\t%d\t%d\t%d\t%.2f", i, (i - 1) / GRID_COLUMNS, (i - 1) % GRID_COLUMNS,
+                          nReads.get(i), nBases.get(i), nAligned.get(i), identity);
+                pw.println("");
+            }
+            pw.close();
+        } catch (IOException e) {
+            System.out.println("writeFile exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -11,6 +11,11 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.concurrent.*;
 import java.util.regex.Matcher;
@@ -24,7 +29,7 @@ import java.util.regex.Pattern;
 public class ReadExtractor {
     private NanoOKOptions options;
     private ThreadPoolExecutor executor;
-    private long lastCompleted = -1;
+    private ProgressReporter progress;
 
     /**
      * Constructor
@@ -34,34 +39,8 @@ public class ReadExtractor {
         options = o;
 
         //executor = Executors.newFixedThreadPool(options.getNumberOfThreads());
-        executor = new ThreadPoolExecutor(options.getNumberOfThreads(), options.getNumberOfThreads(), 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
-    }
-    
-    /**
-     * Write progress of extraction
-     */
-    private void writeProgress() {
-        long completed = executor.getCompletedTaskCount();
-        long total = executor.getTaskCount();
-        long e = 0;
-        long s = NanoOKOptions.PROGRESS_WIDTH;
-        
-        if (total > 0) {
-            e = NanoOKOptions.PROGRESS_WIDTH * completed / total;
-            s = NanoOKOptions.PROGRESS_WIDTH - e;
-        }
-        
-        if (completed != lastCompleted) {              
-            System.out.print("\rExtraction [");
-            for (int i=0; i<e; i++) {
-                System.out.print("=");
-            }
-            for (int i=0; i<s; i++) {
-                System.out.print(" ");
-            }
-            System.out.print("] " + completed +"/" +  total);
-            lastCompleted = completed;
-        }
+        executor = new ThreadPoolExecutor(options.getNumberOfIOThreads(), options.getNumberOfIOThreads(), 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        progress = new ProgressReporter(options, "extract", "Extraction ", executor);
     }
     
     /**
@@ -104,25 +83,34 @@ public class ReadExtractor {
             }
         }
         
-        File inputDir = new File(inputDirName);
-        File[] listOfFiles = inputDir.listFiles();
+        int nEntries = 0;
         
-        if (listOfFiles == null) {
+        try {
+            DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(inputDirName));
+            try {
+                for (Path path : stream) {
+                    String name = path.getFileName().toString();
+                    nEntries++;
+                    if (name.endsWith(".fast5") && Files.isRegularFile(path)) {
+                        executor.execute(new ReadExtractorRunnable(options, inputDirName, name, outputDirName));
+                        progress.update();
+                    }
+                }
+            } finally {
+                stream.close();
+            }
+            
+            if (nEntries == 0) {
+                System.out.println("");
+                System.out.println("Directory "+inputDirName+" empty");
+            }
+        } catch (NoSuchFileException e) {
             System.out.println("");
             System.out.println("Directory "+inputDirName+" doesn't exist");
-        } else if (listOfFiles.length <= 0) {
+        } catch (IOException e) {
             System.out.println("");
-            System.out.println("Directory "+inputDirName+" empty");
-        } else {
-            for (File file : listOfFiles) {
-                if (file.isFile()) {
-                    if (file.getName().endsWith(".fast5")) {
-                        executor.execute(new ReadExtractorRunnable(options, inputDirName, file.getName(), outputDirName));
-                        writeProgress();
-                    }
-                }
-            }            
-        }    
+            System.out.println("Error reading directory "+inputDirName+": "+e.getMessage());
+        }
     }
 
     /**
@@ -145,13 +133,7 @@ public class ReadExtractor {
         
         // That's all - wait for all threads to finish
         executor.shutdown();
-        while (!executor.isTerminated()) {
-            writeProgress();
-            Thread.sleep(100);
-        }        
-
-        writeProgress();
-        System.out.println("");
+        progress.waitForCompletion();
         System.out.println("");
         System.out.println("DONE");
     }    
@@ -52,10 +52,19 @@ public class ReadExtractorRunnable implements Runnable {
         String inputPathname = inDir + File.separator + filename;
         Fast5File inputFile = new Fast5File(options, inputPathname);
         String outName = new File(inputPathname).getName();
+        long startTime = -2;
         
         for (int t=0; t<3; t++) {
             FastAQFile ff = inputFile.getFastq(options.getBasecallIndex(), t);
             if (ff != null) {
+                // Only look up start time once, if there's a read
+                if (startTime == -2) {
+                    startTime = inputFile.getStartTime();
+                }
+                if (startTime >= 0) {
+                    ff.setComment("start_time=" + startTime);
+                }
+                
                 if (options.getReadFormat() == NanoOKOptions.FASTA) {
                     ff.writeFasta(outDir + File.separator + NanoOKOptions.getTypeFromInt(t) + File.separator + outName + "_BaseCalled_" + NanoOKOptions.getTypeFromInt(t) + ".fasta");
                 } else if (options.getReadFormat() == NanoOKOptions.FASTQ) {
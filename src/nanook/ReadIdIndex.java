@@ -0,0 +1,185 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett
+ *
+ * Copyright 2015 The Genome Analysis Centre (TGAC)
+ */
+
+package nanook;
+
+/**
+ * Compact index of read IDs to read length and GC. IDs are stored as 64-bit
+ * fingerprints in open-addressing tables, with length and GC packed into a
+ * second long, so there are no per-read objects. The index is split into
+ * segments, each with its own lock, so parser threads rarely contend.
+ *
+ * @author Richard Leggett
+ */
+public class ReadIdIndex {
+    private final static int N_SEGMENTS = 16;
+    private final static long EMPTY = 0L;
+    private final static long NOT_FOUND = -1L;
+    private Segment[] segments = new Segment[N_SEGMENTS];
+
+    /**
+     * One lockable open-addressing table.
+     */
+    private static class Segment {
+        private long[] keys = new long[1024];
+        private long[] values = new long[1024];
+        private int n = 0;
+
+        private int slot(long key, int length) {
+            return (int)(key >>> 32) & (length - 1);
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+
+            keys = new long[oldKeys.length * 2];
+            values = new long[oldValues.length * 2];
+
+            for (int i=0; i<oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int s = slot(oldKeys[i], keys.length);
+                    while (keys[s] != EMPTY) {
+                        s = (s + 1) & (keys.length - 1);
+                    }
+                    keys[s] = oldKeys[i];
+                    values[s] = oldValues[i];
+                }
+            }
+        }
+
+        synchronized boolean putIfAbsent(long key, long value) {
+            int s = slot(key, keys.length);
+
+            while (keys[s] != EMPTY) {
+                if (keys[s] == key) {
+                    return false;
+                }
+                s = (s + 1) & (keys.length - 1);
+            }
+
+            keys[s] = key;
+            values[s] = value;
+            n++;
+
+            if (n * 2 > keys.length) {
+                resize();
+            }
+
+            return true;
+        }
+
+        synchronized long get(long key) {
+            int s = slot(key, keys.length);
+
+            while (keys[s] != EMPTY) {
+                if (keys[s] == key) {
+                    return values[s];
+                }
+                s = (s + 1) & (keys.length - 1);
+            }
+
+            return NOT_FOUND;
+        }
+
+        synchronized int size() {
+            return n;
+        }
+    }
+
+    public ReadIdIndex() {
+        for (int i=0; i<N_SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Calculate 64-bit fingerprint of prefix:id without building the String.
+     * @param prefix read file prefix
+     * @param id read ID
+     * @return fingerprint, never 0
+     */
+    private static long fingerprint(String prefix, String id) {
+        long h = 0xcbf29ce484222325L;
+
+        for (int i=0; i<prefix.length(); i++) {
+            h = (h ^ prefix.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ ':') * 0x100000001b3L;
+        for (int i=0; i<id.length(); i++) {
+            h = (h ^ id.charAt(i)) * 0x100000001b3L;
+        }
+
+        // Final mix so that all bits depend on all characters
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return h == EMPTY ? 1 : h;
+    }
+
+    private Segment getSegment(long key) {
+        return segments[(int)(key & (N_SEGMENTS - 1))];
+    }
+
+    /**
+     * Store length and GC for a read.
+     * @param prefix read file prefix
+     * @param id read ID
+     * @param length read length
+     * @param gc GC percent
+     * @return false if the read was already present
+     */
+    public boolean putIfAbsent(String prefix, String id, int length, double gc) {
+        long key = fingerprint(prefix, id);
+        long value = ((long)length << 32) | (Float.floatToIntBits((float)gc) & 0xFFFFFFFFL);
+
+        return getSegment(key).putIfAbsent(key, value);
+    }
+
+    /**
+     * Get length of a read.
+     * @param prefix read file prefix
+     * @param id read ID
+     * @return length, or -1 if not found
+     */
+    public int getLength(String prefix, String id) {
+        long key = fingerprint(prefix, id);
+        long value = getSegment(key).get(key);
+
+        return value == NOT_FOUND ? -1 : (int)(value >>> 32);
+    }
+
+    /**
+     * Get GC of a read.
+     * @param prefix read file prefix
+     * @param id read ID
+     * @return GC percent, or -1 if not found
+     */
+    public double getGC(String prefix, String id) {
+        long key = fingerprint(prefix, id);
+        long value = getSegment(key).get(key);
+
+        return value == NOT_FOUND ? -1 : (double)Float.intBitsToFloat((int)value);
+    }
+
+    /**
+     * Get number of reads stored.
+     * @return number of reads
+     */
+    public int size() {
+        int n = 0;
+
+        for (int i=0; i<N_SEGMENTS; i++) {
+            n += segments[i].size();
+        }
+
+        return n;
+    }
+}
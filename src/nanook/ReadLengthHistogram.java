@@ -0,0 +1,184 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett
+ *
+ * Copyright 2015 The Genome Analysis Centre (TGAC)
+ */
+
+package nanook;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of read lengths with log-linear buckets. Lengths below 2048 have
+ * a bucket each; above that, every power of two is split into 256 buckets,
+ * so any int length can be stored with under 0.4% bucket width. Each bucket
+ * also keeps the exact sum of lengths in it, so totals are exact and Nx values
+ * are found by a single pass over the buckets.
+ *
+ * @author Richard Leggett
+ */
+public class ReadLengthHistogram implements Serializable {
+    private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
+    private final static int LINEAR_BITS = 11;
+    private final static int SUB_BUCKET_BITS = 8;
+    private final static int LINEAR_BUCKETS = 1 << LINEAR_BITS;
+    private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private final static int N_BUCKETS = LINEAR_BUCKETS + ((31 - LINEAR_BITS) * SUB_BUCKETS);
+    private AtomicIntegerArray counts = new AtomicIntegerArray(N_BUCKETS);
+    private AtomicLongArray sums = new AtomicLongArray(N_BUCKETS);
+    private LongAdder nReads = new LongAdder();
+    private LongAdder nBases = new LongAdder();
+
+    /**
+     * Get bucket for a length.
+     * @param l length
+     * @return bucket index
+     */
+    private static int getBucket(int l) {
+        if (l < LINEAR_BUCKETS) {
+            return l < 0 ? 0 : l;
+        }
+
+        int octave = 31 - Integer.numberOfLeadingZeros(l);
+        int sub = (l >>> (octave - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return LINEAR_BUCKETS + ((octave - LINEAR_BITS) * SUB_BUCKETS) + sub;
+    }
+
+    /**
+     * Get smallest length stored in a bucket.
+     * @param b bucket index
+     * @return length
+     */
+    private static long getBucketStart(int b) {
+        if (b < LINEAR_BUCKETS) {
+            return b;
+        }
+
+        int octave = LINEAR_BITS + ((b - LINEAR_BUCKETS) >> SUB_BUCKET_BITS);
+        int sub = (b - LINEAR_BUCKETS) & (SUB_BUCKETS - 1);
+
+        return (1L << octave) + ((long)sub << (octave - SUB_BUCKET_BITS));
+    }
+
+    /**
+     * Add a read length.
+     * @param l length
+     */
+    public void add(int l) {
+        int b = getBucket(l);
+
+        counts.incrementAndGet(b);
+        sums.addAndGet(b, l);
+        nReads.increment();
+        nBases.add(l);
+    }
+
+    /**
+     * Add counts from another histogram.
+     * @param h histogram to merge in
+     */
+    public void merge(ReadLengthHistogram h) {
+        for (int b=0; b<N_BUCKETS; b++) {
+            counts.addAndGet(b, h.counts.get(b));
+            sums.addAndGet(b, h.sums.get(b));
+        }
+        nReads.add(h.getNumReads());
+        nBases.add(h.getTotalBases());
+    }
+
+    /**
+     * Get number of reads.
+     * @return number of reads
+     */
+    public long getNumReads() {
+        return nReads.sum();
+    }
+
+    /**
+     * Get total bases.
+     * @return number of bases
+     */
+    public long getTotalBases() {
+        return nBases.sum();
+    }
+
+    /**
+     * Get mean length.
+     * @return mean length
+     */
+    public double getMeanLength() {
+        long n = nReads.sum();
+
+        return n > 0 ? (double)nBases.sum() / (double)n : 0;
+    }
+
+    /**
+     * Estimate length within a bucket, from the mean of the lengths in it.
+     * @param b bucket index
+     * @return length
+     */
+    private int getBucketLength(int b) {
+        int c = counts.get(b);
+
+        if ((b < LINEAR_BUCKETS) || (c == 0)) {
+            return (int)getBucketStart(b);
+        }
+
+        return (int)Math.round((double)sums.get(b) / (double)c);
+    }
+
+    /**
+     * Find Nx - the length L such that reads of length L or longer contain at
+     * least x percent of all bases - and the number of such reads.
+     * @param x percentage, e.g. 50 for N50
+     * @return two element array of Nx length and count of reads
+     */
+    public int[] getNx(double x) {
+        double threshold = ((double)getTotalBases() * x) / 100.0;
+        long total = 0;
+        long c = 0;
+
+        for (int b=N_BUCKETS-1; b>=0; b--) {
+            int count = counts.get(b);
+            if (count > 0) {
+                long sum = sums.get(b);
+                if ((double)(total + sum) >= threshold) {
+                    // Assume reads in the bucket are all of its mean length
+                    double mean = (double)sum / (double)count;
+                    long needed = (long)Math.ceil((threshold - total) / mean);
+                    needed = Math.max(1, Math.min(needed, count));
+                    return new int[] {getBucketLength(b), (int)(c + needed)};
+                }
+                total += sum;
+                c += count;
+            }
+        }
+
+        return new int[] {0, 0};
+    }
+
+    /**
+     * Find the length at a given percentile of reads, by number of reads.
+     * @param p percentile (0 to 100)
+     * @return length
+     */
+    public int getPercentile(double p) {
+        long n = getNumReads();
+        long rank = Math.max(1, (long)Math.ceil(((double)n * p) / 100.0));
+        long c = 0;
+
+        for (int b=0; b<N_BUCKETS; b++) {
+            c += counts.get(b);
+            if (c >= rank) {
+                return getBucketLength(b);
+            }
+        }
+
+        return 0;
+    }
+}
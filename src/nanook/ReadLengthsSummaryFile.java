@@ -17,6 +17,7 @@ import java.io.*;
 public class ReadLengthsSummaryFile {
     private PrintWriter pw;
     private String filename;
+    private StringBuilder nxLines = new StringBuilder();
 
     /**
      * Constructor.
@@ -53,12 +54,25 @@ public class ReadLengthsSummaryFile {
     public void addReadSetStats(ReadSetStats r) {
         pw.printf("%-10s %-8d %-10d %-10.2f %-8d %-8d %-8d %-8d %-8d %-8d", r.getTypeString(), r.getNumReads(), r.getTotalBases(), r.getMeanLength(), r.getLongest(), r.getShortest(), r.getN50(), r.getN50Count(), r.getN90(), r.getN90Count());
         pw.println("");
+        
+        nxLines.append(String.format("%-10s", r.getTypeString()));
+        for (int x=10; x<=90; x+=10) {
+            nxLines.append(String.format(" %-8d", r.getNx(x)));
+        }
+        nxLines.append(String.format(" %-8d", r.getLengthPercentile(50)));
+        nxLines.append(System.lineSeparator());
     }
     
     /**
      * Close output file.
      */
     public void close() {
+        pw.println("");
+        pw.println("Nx summary");
+        pw.println("");
+        pw.printf("%-10s %-8s %-8s %-8s %-8s %-8s %-8s %-8s %-8s %-8s %-8s", "Type", "N10", "N20", "N30", "N40", "N50", "N60", "N70", "N80", "N90", "Median");
+        pw.println("");
+        pw.print(nxLines.toString());
         pw.close();
     }
 }
@@ -9,8 +9,16 @@ package nanook;
 
 import java.io.BufferedReader;
 import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -20,6 +28,8 @@ import java.util.concurrent.TimeUnit;
  * @author Richard Leggett
  */
 public class ReadSet {
+    private final static int QUEUED_FILES_PER_THREAD = 8;
+    private final static long SETTLE_TIME = 10000;
     private ThreadPoolExecutor parserExecutor;
     private ThreadPoolExecutor queryExecutor;
     private NanoOKOptions options;
@@ -27,7 +37,9 @@ public class ReadSet {
     private int type;
     private int nFastaFiles=0;
     private String typeString;
-    private long lastCompleted = -1;
+    private ProgressReporter progress;
+    private AlignmentsTableFile nonAlignedSummary = null;
+    private HashSet<String> submitted = null;
 
    
     /**
@@ -42,36 +54,55 @@ public class ReadSet {
         stats = s;
         
         parserExecutor = new ThreadPoolExecutor(options.getNumberOfThreads(), options.getNumberOfThreads(), 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
-        queryExecutor = new ThreadPoolExecutor(options.getNumberOfThreads(), options.getNumberOfThreads(), 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        queryExecutor = createParserExecutor(options.getNumberOfThreads());
+        progress = new ProgressReporter(options, "parse " + NanoOKOptions.getTypeFromInt(t), "", queryExecutor);
+        progress.addStats(stats);
     }
-        
+    
     /**
-     * Write progress
+     * Make a thread pool for parsers. The queue is bounded and submitting
+     * blocks while it is full, so reads are only found as fast as they can be
+     * parsed and memory doesn't grow with the number of reads. Queued reads
+     * are parsed largest first (see ParserQueue).
+     * @param nThreads number of threads
+     * @return ThreadPoolExecutor
      */
-    private void writeProgress(ThreadPoolExecutor tpe) {
-        long completed = tpe.getCompletedTaskCount();
-        long total = tpe.getTaskCount();
-        long e = 0;
-        long s = NanoOKOptions.PROGRESS_WIDTH;
-        
-        if (total > 0) {
-            e = NanoOKOptions.PROGRESS_WIDTH * completed / total;
-            s = NanoOKOptions.PROGRESS_WIDTH - e;
-        }
-        
-        if (completed != lastCompleted) {              
-            System.out.print("\r[");
-            for (int i=0; i<e; i++) {
-                System.out.print("=");
-            }
-            for (int i=0; i<s; i++) {
-                System.out.print(" ");
+    public static ThreadPoolExecutor createParserExecutor(int nThreads) {
+        return new ThreadPoolExecutor(nThreads, nThreads, 10, TimeUnit.SECONDS, new ParserQueue(nThreads * QUEUED_FILES_PER_THREAD), new RejectedExecutionHandler() {
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+                if (e.isShutdown()) {
+                    throw new RejectedExecutionException("Parser pool has been shut down");
+                }
+                
+                try {
+                    e.getQueue().put(r);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(ie);
+                }
             }
-            System.out.print("] " + completed +"/" +  total);
-            lastCompleted = completed;
-        }
-    }    
+        });
+    }
     
+    /**
+     * Constructor for a read set parsed on a thread pool shared with other
+     * read sets. Call submitReads, wait for the pool to finish, then call
+     * finishReads.
+     * @param t type (defined in NanoOKOprions)
+     * @param o NanoOKOptions object
+     * @param s set of stats to associate with this read set
+     * @param e shared thread pool
+     * @param p progress of shared thread pool
+     */
+    public ReadSet(int t, NanoOKOptions o, ReadSetStats s, ThreadPoolExecutor e, ProgressReporter p) {
+        options = o;
+        type = t;
+        stats = s;
+        queryExecutor = e;
+        progress = p;
+        progress.addStats(stats);
+    }
+        
     /**
      * Check if filename has valid read extension 
      * @param f flename
@@ -97,20 +128,82 @@ public class ReadSet {
      * Gather length statistics on reads and parse alignments
      */
     public int processReads() throws InterruptedException {
+        submitReads();
+        
+        // That's all - wait for all threads to finish
+        queryExecutor.shutdown();
+        progress.waitForCompletion();
+        
+        finishReads();
+        
+        return nFastaFiles;
+    }
+    
+    /**
+     * Get names of all entries in a directory, with a single listing.
+     * @param dirName directory name
+     * @return set of names, empty if directory doesn't exist
+     */
+    private HashSet<String> listFilenames(String dirName) {
+        HashSet<String> names = new HashSet<String>();
+        
+        try {
+            DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(dirName));
+            try {
+                for (Path p : stream) {
+                    names.add(p.getFileName().toString());
+                }
+            } finally {
+                stream.close();
+            }
+        } catch (NoSuchFileException e) {
+        } catch (IOException e) {
+            System.out.println("Warning: can't list " + dirName + ": " + e.getMessage());
+        }
+        
+        return names;
+    }
+    
+    /**
+     * Watch for new reads. submitReads can then be called repeatedly and only
+     * queues reads it hasn't queued before. A read is only queued once its
+     * alignment file hasn't changed for SETTLE_TIME, so alignments still being
+     * written aren't parsed; reads without one are tried again next time.
+     */
+    public void setWatching() {
+        submitted = new HashSet<String>();
+    }
+    
+    /**
+     * Check if an alignment file has finished being written.
+     * @param filename alignment filename
+     * @return true if not modified recently
+     */
+    private boolean isSettled(String filename) {
+        return (System.currentTimeMillis() - new File(filename).lastModified()) >= SETTLE_TIME;
+    }
+    
+    /**
+     * Find reads and queue a parser for each. Read directories are streamed,
+     * so parsing starts as soon as the first reads are found.
+     * @return number of read files queued
+     */
+    public int submitReads() {
         AlignmentFileParser parser = options.getParser();
         String[] readDirs = new String[2];
         String[] alignerDirs = new String[2];
         int readTypes[] = new int[2];
         int nDirs = 0;
         int maxReads = options.getMaxReads();
-        String outputFilename = options.getAnalysisDir() + File.separator + "Unaligned" + File.separator + options.getTypeFromInt(type) + "_nonaligned.txt";
-        AlignmentsTableFile nonAlignedSummary = new AlignmentsTableFile(outputFilename);
+        int nQueued = 0;
+        boolean watching = submitted != null;
         
-        nFastaFiles=0;
-
-        typeString = options.getTypeFromInt(type);
-                
-        stats.openLengthsFile();
+        if (nonAlignedSummary == null) {
+            String outputFilename = options.getAnalysisDir() + File.separator + "Unaligned" + File.separator + options.getTypeFromInt(type) + "_nonaligned.txt";
+            nonAlignedSummary = new AlignmentsTableFile(outputFilename);
+            typeString = options.getTypeFromInt(type);
+            stats.openLengthsFile();
+        }
 
         if (options.isNewStyleReadDir()) {
             if (options.isProcessingPassReads()) {
@@ -134,56 +227,125 @@ public class ReadSet {
         }
                 
         for (int dirIndex=0; dirIndex<nDirs; dirIndex++) {        
+            // Once -maxreads is reached, later scans (e.g. when watching) queue nothing
+            if ((maxReads > 0) && (nFastaFiles >= maxReads)) {
+                break;
+            }
+            
             String inputDir = readDirs[dirIndex] + File.separator + options.getTypeFromInt(type);
             String alignDir = alignerDirs[dirIndex] + File.separator + options.getTypeFromInt(type);
-            File folder = new File(inputDir);
-            File[] listOfFiles = folder.listFiles();
+            HashSet<String> alignmentFiles = null;
+            int nEntries = 0;
 
-            if (listOfFiles == null) {
-                System.out.println("");
-                System.out.println("Directory "+inputDir+" doesn't exist");
-            } else if (listOfFiles.length <= 0) {
-                System.out.println("");
-                System.out.println("Directory "+inputDir+" empty");
-            } else {
-                for (File file : listOfFiles) {
-                    if (file.isFile()) {
-                        if (isValidReadExtension(file.getName())) {
-                            String alignmentFilename = alignDir + File.separator + file.getName() + parser.getAlignmentFileExtension();
+            try {
+                DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(inputDir));
+                try {
+                    for (Path path : stream) {
+                        if ((maxReads > 0) && (nFastaFiles >= maxReads)) {
+                            break;
+                        }
+                        
+                        String name = path.getFileName().toString();
+                        nEntries++;
+                        if (!isValidReadExtension(name) || !options.isFileInShard(name)) {
+                            continue;
+                        }
+                        
+                        if (watching && submitted.contains(path.toString())) {
+                            continue;
+                        }
+                        
+                        // Read file size is the cost used to schedule parsing. Skip
+                        // entries that vanish or are dangling links, as isRegularFile did
+                        BasicFileAttributes attrs;
+                        try {
+                            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                        } catch (IOException e) {
+                            continue;
+                        }
+                        
+                        if (attrs.isRegularFile()) {
+                            // One listing of the alignment directory, rather than a stat per read
+                            if (alignmentFiles == null) {
+                                alignmentFiles = listFilenames(alignDir);
+                            }
+                            
+                            String alignmentFilename = alignDir + File.separator + name + parser.getAlignmentFileExtension();
                             //System.out.println(alignmentFilename);
                             //options.getLog().println("File: " + alignmentFilename);
-                            if (new File(alignmentFilename).exists()) {
-                                queryExecutor.execute(new ParserRunnable(options, stats, file.getAbsolutePath(), alignmentFilename, type, readTypes[dirIndex], nonAlignedSummary));
-                                writeProgress(queryExecutor);
+                            if (alignmentFiles.contains(name + parser.getAlignmentFileExtension()) && (!watching || isSettled(alignmentFilename))) {
+                                queryExecutor.execute(new ParserRunnable(options, stats, path.toAbsolutePath().toString(), alignmentFilename, type, readTypes[dirIndex], nonAlignedSummary, attrs.size()));
+                                progress.update();
+                                
+                                if (watching) {
+                                    submitted.add(path.toString());
+                                }
                                                                 
+                                nQueued++;
                                 nFastaFiles++;
-                                if ((maxReads > 0) && (nFastaFiles >= maxReads)) {
-                                     break;
-                                }
-                                
-                            } else {
+                            } else if (!watching) {
                                 System.out.println("Error: Read ignored, can't find alignment "+alignmentFilename);
                             } 
                         }
                     }
+                } finally {
+                    stream.close();
+                }
+                
+                if ((nEntries == 0) && !watching) {
+                    System.out.println("");
+                    System.out.println("Directory "+inputDir+" empty");
                 }
+            } catch (NoSuchFileException e) {
+                if (!watching) {
+                    System.out.println("");
+                    System.out.println("Directory "+inputDir+" doesn't exist");
+                }
+            } catch (IOException e) {
+                System.out.println("");
+                System.out.println("Error reading directory "+inputDir+": "+e.getMessage());
             }
         }
         
-        // That's all - wait for all threads to finish
-        queryExecutor.shutdown();
-        while (!queryExecutor.isTerminated()) {
-            writeProgress(queryExecutor);
-            Thread.sleep(100);
-        }        
-
-        writeProgress(queryExecutor);
-        System.out.println("");
-        
+        return nQueued;
+    }
+    
+    /**
+     * Write out batched lines of alignments table files for this type.
+     */
+    private void flushAlignmentsTables() {
+        if (nonAlignedSummary != null) {
+            nonAlignedSummary.flush();
+        }
+        options.getReferences().flushAlignmentsTableFiles(type);
+    }
+    
+    /**
+     * Close files and calculate stats, once all parsers have finished.
+     */
+    public void finishReads() {
+        flushAlignmentsTables();
         stats.closeLengthsFile();
         stats.writeSummaryFile();        
         stats.calculateStats();    
-        
+    }
+    
+    /**
+     * Bring files and stats up to date with the reads parsed so far, while
+     * watching. Parsers must be idle.
+     */
+    public void updateReads() {
+        flushAlignmentsTables();
+        stats.flushFiles();
+        stats.writeSummaryFile();
+        stats.calculateStats();
+    }
+    
+    /**
+     * Get number of read files queued.
+     * @return number of files
+     */
+    public int getNumberOfReadFiles() {
         return nFastaFiles;
     }
     
@@ -13,11 +13,15 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Represent statistics about a read set (for example Template read set).
+ * Counters are atomic rather than guarded by the object's monitor, so parser
+ * threads can update them concurrently without contending.
  * 
  * @author Richard Leggett
  */
@@ -27,31 +31,30 @@ public class ReadSetStats implements Serializable {
     private transient PrintWriter pwLengths = null;
     private transient PrintWriter pwKmers = null;
     private String typeString = "";
-    private int longest = 0;
-    private int shortest = NanoOKOptions.MAX_READ_LENGTH;
-    private int basesSum = 0;
+    private AtomicInteger longest = new AtomicInteger(0);
+    private AtomicInteger shortest = new AtomicInteger(Integer.MAX_VALUE);
     private double meanLength = 0;
     private int n50 = 0;
     private int n50Count = 0;
     private int n90 = 0;
     private int n90Count = 0;
-    private int[] lengths = new int[NanoOKOptions.MAX_READ_LENGTH];
-    private Hashtable<String,Integer> readLengths = new Hashtable();
-    private Hashtable<String,Double> readGC = new Hashtable();
-    private int nReads = 0;
-    private int nReadFiles = 0;
-    private int nPassFiles = 0;
-    private int nFailFiles = 0;
-    private int nReadsWithAlignments = 0;
-    private int nReadsWithoutAlignments = 0;
-    private int[] readBestPerfectKmer = new int[NanoOKOptions.MAX_KMER];
-    private int[] readCumulativeBestPerfectKmer = new int[NanoOKOptions.MAX_KMER];
+    private ReadLengthHistogram lengths = new ReadLengthHistogram();
+    private transient ReadIdIndex readIds = new ReadIdIndex();
+    private LongAdder nReads = new LongAdder();
+    private LongAdder nReadFiles = new LongAdder();
+    private LongAdder nPassFiles = new LongAdder();
+    private LongAdder nFailFiles = new LongAdder();
+    private LongAdder nReadsWithAlignments = new LongAdder();
+    private LongAdder nReadsWithoutAlignments = new LongAdder();
+    private AtomicIntegerArray readBestPerfectKmer = new AtomicIntegerArray(NanoOKOptions.MAX_KMER);
     private MotifStatistics motifStats = new MotifStatistics();
-    private int substitutionErrors[][] = new int[4][4];
-    private int nSubstitutions = 0;
-    private int nInsertions = 0;
-    private int nDeletions = 0;
-    private int ignoredDuplicates = 0;
+    private ReadTimeStats timeStats = new ReadTimeStats();
+    private ReadChannelStats channelStats = new ReadChannelStats();
+    private AtomicIntegerArray substitutionErrors = new AtomicIntegerArray(16);
+    private LongAdder nSubstitutions = new LongAdder();
+    private LongAdder nInsertions = new LongAdder();
+    private LongAdder nDeletions = new LongAdder();
+    private AtomicInteger ignoredDuplicates = new AtomicInteger(0);
     private int type;
    
     /**
@@ -63,9 +66,29 @@ public class ReadSetStats implements Serializable {
         options=o;
         type = t;
         typeString = NanoOKOptions.getTypeFromInt(type);
-        for (int i=0; i<NanoOKOptions.MAX_KMER; i++) {
-            readBestPerfectKmer[i] = 0;
-            readCumulativeBestPerfectKmer[i] = 0;
+    }
+
+    /**
+     * Raise an atomic value to at least v.
+     * @param a value to update
+     * @param v candidate maximum
+     */
+    private static void updateMax(AtomicInteger a, int v) {
+        int current = a.get();
+        while ((v > current) && !a.compareAndSet(current, v)) {
+            current = a.get();
+        }
+    }
+
+    /**
+     * Lower an atomic value to at most v.
+     * @param a value to update
+     * @param v candidate minimum
+     */
+    private static void updateMin(AtomicInteger a, int v) {
+        int current = a.get();
+        while ((v < current) && !a.compareAndSet(current, v)) {
+            current = a.get();
         }
     }
 
@@ -88,6 +111,15 @@ public class ReadSetStats implements Serializable {
         }        
     }
     
+    /**
+     * Flush the read lengths and kmers files, so they can be read while
+     * parsing continues.
+     */
+    public synchronized void flushFiles() {
+        pwLengths.flush();
+        pwKmers.flush();
+    }
+    
     /**
      * Close the read lengths file.
      */
@@ -106,41 +138,87 @@ public class ReadSetStats implements Serializable {
      * Calculate various statistics, e.g. N50 etc.
      */
     public synchronized void calculateStats() {
-        int total = 0;
-        int c = 0;
-                
-        meanLength = (double)basesSum / (double)nReads;        
+        int[] nx;
         
-        for (int i=longest; i>0; i--) {
-            for (int j=0; j<lengths[i]; j++) {
-                total += i;
-                c++;
-                
-                if ((n50 == 0) && ((double)total >= ((double)basesSum * 0.5))) {
-                    n50 = i;
-                    n50Count = c;
-                }
+        meanLength = lengths.getMeanLength();
+        
+        nx = lengths.getNx(50);
+        n50 = nx[0];
+        n50Count = nx[1];
 
-                if ((n90 == 0) && ((double)total >= ((double)basesSum * 0.9))) {
-                    n90 = i;
-                    n90Count = c;
-                }        
-            }
+        nx = lengths.getNx(90);
+        n90 = nx[0];
+        n90Count = nx[1];
+    }
+    
+    /**
+     * Get Nx for this read set, e.g. N10 to N90.
+     * @param x percentage of bases
+     * @return Nx length
+     */
+    public int getNx(int x) {
+        return lengths.getNx(x)[0];
+    }
+    
+    /**
+     * Get Nx count - number of reads of length Nx or greater.
+     * @param x percentage of bases
+     * @return count
+     */
+    public int getNxCount(int x) {
+        return lengths.getNx(x)[1];
+    }
+    
+    /**
+     * Get read length at a given percentile of reads.
+     * @param p percentile (0 to 100)
+     * @return length
+     */
+    public int getLengthPercentile(double p) {
+        return lengths.getPercentile(p);
+    }
+    
+    /**
+     * Add counts from another ReadSetStats of the same type, e.g. from one
+     * shard of a sharded analysis. Call calculateStats afterwards.
+     * @param r ReadSetStats to merge in
+     */
+    public void merge(ReadSetStats r) {
+        updateMax(longest, r.getLongest());
+        updateMin(shortest, r.shortest.get());
+        lengths.merge(r.lengths);
+        nReads.add(r.nReads.sum());
+        nReadFiles.add(r.nReadFiles.sum());
+        nPassFiles.add(r.nPassFiles.sum());
+        nFailFiles.add(r.nFailFiles.sum());
+        nReadsWithAlignments.add(r.nReadsWithAlignments.sum());
+        nReadsWithoutAlignments.add(r.nReadsWithoutAlignments.sum());
+        for (int i=0; i<readBestPerfectKmer.length(); i++) {
+            readBestPerfectKmer.addAndGet(i, r.readBestPerfectKmer.get(i));
         }
-        
+        motifStats.merge(r.motifStats);
+        timeStats.merge(r.timeStats);
+        channelStats.merge(r.channelStats);
+        for (int i=0; i<substitutionErrors.length(); i++) {
+            substitutionErrors.addAndGet(i, r.substitutionErrors.get(i));
+        }
+        nSubstitutions.add(r.nSubstitutions.sum());
+        nInsertions.add(r.nInsertions.sum());
+        nDeletions.add(r.nDeletions.sum());
+        ignoredDuplicates.addAndGet(r.getIgnoredDuplicates());
     }
     
     /**
      * Update count of read files.
      * @param type 
      */
-    public synchronized void addReadFile(int type) {
-       nReadFiles++;
+    public void addReadFile(int type) {
+       nReadFiles.increment();
        
        if (type == NanoOKOptions.READTYPE_PASS) {
-           nPassFiles++;
+           nPassFiles.increment();
        } else if (type == NanoOKOptions.READTYPE_FAIL) {
-           nFailFiles++;
+           nFailFiles.increment();
        }
     }
     
@@ -148,23 +226,23 @@ public class ReadSetStats implements Serializable {
      * Get number of read files in pass directory
      * @return Number of files in pass directory
      */
-    public synchronized int getNumberOfPassFiles() {
-        return nPassFiles;        
+    public int getNumberOfPassFiles() {
+        return nPassFiles.intValue();        
     }
 
     /**
      * Get number of read files in fail directory
      * @return Number of files in fail directory
      */
-    public synchronized int getNumberOfFailFiles() {
-        return nFailFiles;        
+    public int getNumberOfFailFiles() {
+        return nFailFiles.intValue();        
     }    
     
     /**
      * Get type
      * @return type
      */
-    public synchronized int getType() {
+    public int getType() {
         return type;
     }
     
@@ -172,7 +250,7 @@ public class ReadSetStats implements Serializable {
      * Get type as a string.
      * @return type String
      */
-    public synchronized String getTypeString() {
+    public String getTypeString() {
         return typeString;
     }
     
@@ -188,16 +266,16 @@ public class ReadSetStats implements Serializable {
      * Get longest read in this read set.
      * @return length
      */
-    public synchronized int getLongest() {
-        return longest;
+    public int getLongest() {
+        return longest.get();
     }
     
     /**
      * Get shortest read in this read set.
      * @return length
      */
-    public synchronized int getShortest() {
-        return shortest;
+    public int getShortest() {
+        return shortest.get() == Integer.MAX_VALUE ? 0 : shortest.get();
     }
     
     /**
@@ -236,24 +314,24 @@ public class ReadSetStats implements Serializable {
      * Get number of reads.
      * @return number of reads
      */
-    public synchronized int getNumReads() {
-        return nReads;
+    public int getNumReads() {
+        return nReads.intValue();
     }
         
     /**
      * Get total bases represented by read set.
      * @return number of bases
      */
-    public synchronized int getTotalBases() {
-        return basesSum;
+    public long getTotalBases() {
+        return lengths.getTotalBases();
     }    
     
     /**
      * Get number of read files.
      * @return number of files
      */
-    public synchronized int getNumReadFiles() {
-        return nReadFiles;
+    public int getNumReadFiles() {
+        return nReadFiles.intValue();
     }    
     
     private String getPrefix(String path) {
@@ -267,141 +345,113 @@ public class ReadSetStats implements Serializable {
      * @param id ID of read
      * @param l length
      */
-    public synchronized void addLength(String readPath, String id, int l, double gc) {
-        lengths[l]++;
+    public void addLength(String readPath, String id, int l, double gc) {
+        lengths.add(l);
         
         pwLengths.println(id + "\t" + l);
         
-        id = getPrefix(readPath) + ":"+id;
+        updateMax(longest, l);
+        updateMin(shortest, l);
         
-        if (l > longest) {
-            longest = l;
-        }
+        nReads.increment();
         
-        if (l < shortest) {
-            shortest = l;
-        }
-        
-        basesSum += l;
-        nReads++;
-        
-        if (readLengths.containsKey(id)) {
-            System.out.println("Error: Read ID "+id+"  . This occurrance ignored.");
-            ignoredDuplicates++;
-        } else {
-            readLengths.put(id, l);
-            readGC.put(id, gc);
+        String prefix = getPrefix(readPath);
+        if (!readIds.putIfAbsent(prefix, id, l, gc)) {
+            System.out.println("Error: Read ID "+prefix+":"+id+"  . This occurrance ignored.");
+            ignoredDuplicates.incrementAndGet();
         }
     }    
+    
+    /**
+     * Release the read ID index once all alignments have been parsed.
+     */
+    public void clearReadIds() {
+        readIds = null;
+    }
         
     /**
      * Get length of read
      * @param id of read
-     * @return length, in bases
+     * @return length, in bases, or -1 if not known
      */
-    public synchronized int getReadLength(String alignmentFile, String id) {
-        int length = -1;
-
-        id = getPrefix(alignmentFile) + ":"+id;
-
-        Integer l = readLengths.get(id);
-        
-        if (l != null) {
-            length = l.intValue();
-        }
-        
-        return length;
+    public int getReadLength(String alignmentFile, String id) {
+        return readIds.getLength(getPrefix(alignmentFile), id);
     }
 
     /**
      * Get GC of read
      * @param id of read
-     * @return GC percent
+     * @return GC percent, or -1 if not known
      */
-    public synchronized double getGC(String alignmentFile, String id) {
-        double gc = -1;
-
-        id = getPrefix(alignmentFile) + ":"+id;
-        
-        Double g = readGC.get(id);
-        
-        //if (g != null) {
-        //    gc = g.intValue();
-        //}
-        
-        //return gc;
-        return g;
+    public double getGC(String alignmentFile, String id) {
+        return readIds.getGC(getPrefix(alignmentFile), id);
     }    
     
     /**
      * Store a read with an alignment.
      */
-    public synchronized void addReadWithAlignment() {
-        nReadsWithAlignments++;
+    public void addReadWithAlignment() {
+        nReadsWithAlignments.increment();
     }
 
     /**
      * Store a read without an alignment.
      */
-    public synchronized void addReadWithoutAlignment() {
-        nReadsWithoutAlignments++;
+    public void addReadWithoutAlignment() {
+        nReadsWithoutAlignments.increment();
     }
         
     /**
      * Store best perfect kmers for each read.
      * @param bestKmer length of best perfect kmer
      */
-    public synchronized void addReadBestKmer(int bestKmer) {
+    public void addReadBestKmer(int bestKmer) {
         if (bestKmer >= NanoOKOptions.MAX_KMER) {
             System.out.println("Error: the unlikely event of a best kmer size of "+bestKmer+" has happened!");
             System.exit(1);
         }
         
-        readBestPerfectKmer[bestKmer]++;
-        
-        for (int i=0; i<bestKmer; i++) {
-            readCumulativeBestPerfectKmer[i]++;
-        }
+        readBestPerfectKmer.incrementAndGet(bestKmer);
     }
         
     /**
      * Get number of reads in this read set.
      * @return number of reads.
      */
-    public synchronized int getNumberOfReads() {
-        return nReads;
+    public int getNumberOfReads() {
+        return nReads.intValue();
     }
     
     /**
      * Get number of reads with alignments in this read set.
      * @return number of reads
      */
-    public synchronized int getNumberOfReadsWithAlignments() {
-        return nReadsWithAlignments;
+    public int getNumberOfReadsWithAlignments() {
+        return nReadsWithAlignments.intValue();
     }
     
     /**
      * Get number of reads without alignments in this read set.
      * @return number of reads
      */
-    public synchronized int getNumberOfReadsWithoutAlignments() {
-        return nReadsWithoutAlignments;
+    public int getNumberOfReadsWithoutAlignments() {
+        return nReadsWithoutAlignments.intValue();
     }
     
     /**
      * Get percentage of reads with alignments
      * @return percentage of reads
      */
-    public synchronized double getPercentOfReadsWithAlignments() {
-        return (100.0 * (double)nReadsWithAlignments) / (double)nReads;
+    public double getPercentOfReadsWithAlignments() {
+        return (100.0 * (double)nReadsWithAlignments.sum()) / (double)nReads.sum();
     }
     
     /**
      * Get percentage of reads without alignments
      * @return percentage of reads
      */
-    public synchronized double getPercentOfReadsWithoutAlignments() {
-        return (100.0 * (double)nReadsWithoutAlignments) / (double)nReads;
+    public double getPercentOfReadsWithoutAlignments() {
+        return (100.0 * (double)nReadsWithoutAlignments.sum()) / (double)nReads.sum();
     }    
     
     /**
@@ -409,9 +459,9 @@ public class ReadSetStats implements Serializable {
      */
     public synchronized void printStats() {
         System.out.println("Parse " + typeString + " alignments");
-        System.out.println(typeString + " reads: " + nReads);
-        System.out.println(typeString + " reads with alignments: " + nReadsWithAlignments);
-        System.out.println(typeString + " reads without alignments: " + nReadsWithoutAlignments);
+        System.out.println(typeString + " reads: " + nReads.sum());
+        System.out.println(typeString + " reads with alignments: " + nReadsWithAlignments.sum());
+        System.out.println(typeString + " reads without alignments: " + nReadsWithoutAlignments.sum());
     }
     
     /**
@@ -426,11 +476,11 @@ public class ReadSetStats implements Serializable {
             pw.printf("%s alignments", typeString);
             pw.println("");
             pw.println("");
-            pw.printf("Num reads: %d", nReads);
+            pw.printf("Num reads: %d", nReads.sum());
             pw.println("");
-            pw.printf("Num reads with alignments: %d", nReadsWithAlignments);
+            pw.printf("Num reads with alignments: %d", nReadsWithAlignments.sum());
             pw.println("");
-            pw.printf("Num reads without alignments: %d", nReadsWithoutAlignments);
+            pw.printf("Num reads without alignments: %d", nReadsWithoutAlignments.sum());
             pw.println("");
             pw.close();
         } catch (IOException e) {
@@ -445,9 +495,9 @@ public class ReadSetStats implements Serializable {
      * @param size size of deletion
      * @param kmer kmer prior to error
      */
-    public synchronized void addDeletionError(int size, String kmer) {
+    public void addDeletionError(int size, String kmer) {
         motifStats.addDeletionMotifs(kmer);
-        nDeletions++;
+        nDeletions.increment();
     }
     
     /**
@@ -455,9 +505,9 @@ public class ReadSetStats implements Serializable {
      * @param size size of insertion
      * @param kmer kmer prior to error
      */
-    public synchronized void addInsertionError(int size, String kmer) {
+    public void addInsertionError(int size, String kmer) {
         motifStats.addInsertionMotifs(kmer);
-        nInsertions++;
+        nInsertions.increment();
     } 
     
     /** 
@@ -466,7 +516,7 @@ public class ReadSetStats implements Serializable {
      * @param refChar reference base
      * @param subChar substituted base
      */
-    public synchronized void addSubstitutionError(String kmer, char refChar, char subChar) {
+    public void addSubstitutionError(String kmer, char refChar, char subChar) {
         int r = -1;
         int s = -1;
         
@@ -489,8 +539,8 @@ public class ReadSetStats implements Serializable {
         }
            
         if ((r >= 0) && (s >= 0)) {
-            nSubstitutions++;
-            substitutionErrors[r][s]++;
+            nSubstitutions.increment();
+            substitutionErrors.incrementAndGet((r * 4) + s);
         }
     }
     
@@ -498,16 +548,24 @@ public class ReadSetStats implements Serializable {
      * Get substitution error matrix (A, C, G, T vs A, C, G, T).
      * @return Substitution error matrix
      */
-    public synchronized int[][] getSubstitutionErrors() {
-        return substitutionErrors;
+    public int[][] getSubstitutionErrors() {
+        int[][] subs = new int[4][4];
+        
+        for (int r=0; r<4; r++) {
+            for (int s=0; s<4; s++) {
+                subs[r][s] = substitutionErrors.get((r * 4) + s);
+            }
+        }
+        
+        return subs;
     }
     
     /**
      * Get number of substitutions.
      * @return number
      */
-    public synchronized int getNumberOfSubstitutions() {
-        return nSubstitutions;
+    public int getNumberOfSubstitutions() {
+        return nSubstitutions.intValue();
     }
     
     /**
@@ -521,16 +579,35 @@ public class ReadSetStats implements Serializable {
      * Get motif statistics.
      * @return MotifStatistics object
      */
-    public synchronized MotifStatistics getMotifStatistics() {
+    public MotifStatistics getMotifStatistics() {
         return motifStats;
     }
     
-    public synchronized void writekCounts(String id, int length, int nk, int[] s, int[] kCounts) {            
-        pwKmers.print(id+"\t"+Integer.toString(length));
+    /**
+     * Get statistics by hour of run.
+     * @return ReadTimeStats object
+     */
+    public ReadTimeStats getTimeStats() {
+        return timeStats;
+    }
+    
+    /**
+     * Get statistics by channel.
+     * @return ReadChannelStats object
+     */
+    public ReadChannelStats getChannelStats() {
+        return channelStats;
+    }
+    
+    public void writekCounts(String id, int length, int nk, int[] s, int[] kCounts) {            
+        StringBuilder sb = new StringBuilder(id);
+        sb.append('\t');
+        sb.append(length);
         for (int i=0; i<nk; i++) {
-            pwKmers.print("\t"+Integer.toString(kCounts[i]));
+            sb.append('\t');
+            sb.append(kCounts[i]);
         }
-        pwKmers.println("");
+        pwKmers.println(sb.toString());
     }
     
     /**
@@ -540,12 +617,32 @@ public class ReadSetStats implements Serializable {
         return options;
     }
     
+    /**
+     * Write yield and error rates by hour of run, if reads had start times
+     */
+    public void writeTimeStats() {
+        if (timeStats.hasTimes()) {
+            timeStats.writeFile(options.getAnalysisDir() + File.separator + "all_" + NanoOKOptions.getTypeFromInt(type) + "_time.txt");
+        }
+    }
+    
+    /**
+     * Write read counts, yield and identity by channel, if read filenames had channels
+     */
+    public void writeChannelStats() {
+        if (channelStats.hasChannels()) {
+            channelStats.writeFile(options.getAnalysisDir() + File.separator + "all_" + NanoOKOptions.getTypeFromInt(type) + "_channels.txt");
+        }
+    }
+    
     /**
      * Write substitution stats to a file
      */
     public void writeSubstitutionStats() {
         String filenamePc = options.getAnalysisDir() + File.separator + "all_" + NanoOKOptions.getTypeFromInt(type) + "_substitutions_percent.txt";
         String bases[] = {"A","C","G","T"};
+        int[][] subs = getSubstitutionErrors();
+        long n = nSubstitutions.sum();
         try {
             PrintWriter pwPc = new PrintWriter(new FileWriter(filenamePc)); 
             pwPc.println("\tSubA\tSubC\tSubG\tSubT");            
@@ -554,8 +651,8 @@ public class ReadSetStats implements Serializable {
                 for (int s=0; s<4; s++) {
                     double pc = 0;
 
-                    if (substitutionErrors[r][s] > 0) {
-                        pc = (100.0 * (double)substitutionErrors[r][s]) / nSubstitutions;
+                    if (subs[r][s] > 0) {
+                        pc = (100.0 * (double)subs[r][s]) / n;
                     }                    
                     pwPc.printf("\t%.2f", pc);
                 }
@@ -575,7 +672,7 @@ public class ReadSetStats implements Serializable {
     public void writeErrorMotifStats() {
         try {
             for (int t=0; t<3; t++) {
-                for (int n=3; n<=5; n++) {
+                for (int n=MotifStatistics.MIN_MOTIF_SIZE; n<=MotifStatistics.MAX_MOTIF_SIZE; n++) {
                     ArrayList<Map.Entry<String, Double>> motifs = null;
                     String typeString = "";
                     String filename = "";
@@ -610,6 +707,6 @@ public class ReadSetStats implements Serializable {
     }
     
     public int getIgnoredDuplicates() {
-        return ignoredDuplicates;
+        return ignoredDuplicates.get();
     }
 }
\ No newline at end of file
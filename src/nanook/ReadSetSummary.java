@@ -0,0 +1,116 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett
+ *
+ * Copyright 2015 The Genome Analysis Centre (TGAC)
+ */
+
+package nanook;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Summary values for a read set, as stored in a sample summary file.
+ *
+ * @author Richard Leggett
+ */
+public class ReadSetSummary {
+    private int numReads = 0;
+    private long totalBases = 0;
+    private double meanLength = 0;
+    private int longest = 0;
+    private int shortest = 0;
+    private int n50 = 0;
+    private int n50Count = 0;
+    private int n90 = 0;
+    private int n90Count = 0;
+    private int numReadsWithAlignments = 0;
+    private int numReadsWithoutAlignments = 0;
+
+    /**
+     * Write summary values for a read set.
+     * @param dos stream to write to
+     * @param r read set stats
+     */
+    public static void write(DataOutputStream dos, ReadSetStats r) throws IOException {
+        dos.writeInt(r.getNumReads());
+        dos.writeLong(r.getTotalBases());
+        dos.writeDouble(r.getMeanLength());
+        dos.writeInt(r.getLongest());
+        dos.writeInt(r.getShortest());
+        dos.writeInt(r.getN50());
+        dos.writeInt(r.getN50Count());
+        dos.writeInt(r.getN90());
+        dos.writeInt(r.getN90Count());
+        dos.writeInt(r.getNumberOfReadsWithAlignments());
+        dos.writeInt(r.getNumberOfReadsWithoutAlignments());
+    }
+
+    /**
+     * Read summary values for a read set.
+     * @param dis stream to read from
+     */
+    public ReadSetSummary(DataInputStream dis) throws IOException {
+        numReads = dis.readInt();
+        totalBases = dis.readLong();
+        meanLength = dis.readDouble();
+        longest = dis.readInt();
+        shortest = dis.readInt();
+        n50 = dis.readInt();
+        n50Count = dis.readInt();
+        n90 = dis.readInt();
+        n90Count = dis.readInt();
+        numReadsWithAlignments = dis.readInt();
+        numReadsWithoutAlignments = dis.readInt();
+    }
+
+    public int getNumReads() {
+        return numReads;
+    }
+
+    public long getTotalBases() {
+        return totalBases;
+    }
+
+    public double getMeanLength() {
+        return meanLength;
+    }
+
+    public int getLongest() {
+        return longest;
+    }
+
+    public int getShortest() {
+        return shortest;
+    }
+
+    public int getN50() {
+        return n50;
+    }
+
+    public int getN50Count() {
+        return n50Count;
+    }
+
+    public int getN90() {
+        return n90;
+    }
+
+    public int getN90Count() {
+        return n90Count;
+    }
+
+    public int getNumberOfReads() {
+        return numReads;
+    }
+
+    public int getNumberOfReadsWithAlignments() {
+        return numReadsWithAlignments;
+    }
+
+    public int getNumberOfReadsWithoutAlignments() {
+        return numReadsWithoutAlignments;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett
+ *
+ * Copyright 2015 The Genome Analysis Centre (TGAC)
+ */
+
+package nanook;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read set statistics bucketed by hour of the run, from read start times.
+ * Used to see yield and accuracy change over a run, e.g. as pores degrade.
+ *
+ * Start times are either seconds since the start of the run (as written by
+ * extract) or seconds since the epoch (from basecaller headers). Epoch times
+ * are reported relative to the first hour with reads.
+ *
+ * @author Richard Leggett
+ */
+public class ReadTimeStats implements Serializable {
+    private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
+    public final static int BUCKET_SECONDS = 3600;
+    private final static long EPOCH_HOURS = 100000;
+    private ConcurrentHashMap<Long,Bucket> buckets = new ConcurrentHashMap<Long,Bucket>();
+
+    /**
+     * Stats for one hour.
+     */
+    private static class Bucket implements Serializable {
+        private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
+        private ReadLengthHistogram lengths = new ReadLengthHistogram();
+        private LongAdder nAligned = new LongAdder();
+        private LongAdder alignedColumns = new LongAdder();
+        private LongAdder identicalBases = new LongAdder();
+        private LongAdder substitutions = new LongAdder();
+        private LongAdder indels = new LongAdder();
+
+        private void merge(Bucket b) {
+            lengths.merge(b.lengths);
+            nAligned.add(b.nAligned.sum());
+            alignedColumns.add(b.alignedColumns.sum());
+            identicalBases.add(b.identicalBases.sum());
+            substitutions.add(b.substitutions.sum());
+            indels.add(b.indels.sum());
+        }
+    }
+
+    private Bucket getBucket(long startTime) {
+        Long hour = startTime / BUCKET_SECONDS;
+        Bucket b = buckets.get(hour);
+
+        if (b == null) {
+            Bucket n = new Bucket();
+            b = buckets.putIfAbsent(hour, n);
+            if (b == null) {
+                b = n;
+            }
+        }
+
+        return b;
+    }
+
+    /**
+     * Add a read.
+     * @param startTime start time in seconds
+     * @param length read length
+     */
+    public void addRead(long startTime, int length) {
+        getBucket(startTime).lengths.add(length);
+    }
+
+    /**
+     * Add a read's alignment.
+     * @param startTime start time in seconds
+     * @param ais alignment stats of read
+     */
+    public void addAlignment(long startTime, AlignmentInfo ais) {
+        Bucket b = getBucket(startTime);
+        int matchedColumns = ais.getAlignmentSizeMinusIndels();
+
+        b.nAligned.increment();
+        b.alignedColumns.add(ais.getAlignmentSize());
+        b.identicalBases.add(ais.getIdenticalBases());
+        b.substitutions.add(matchedColumns - ais.getIdenticalBases());
+        b.indels.add(ais.getAlignmentSize() - matchedColumns);
+    }
+
+    /**
+     * Add counts from another ReadTimeStats, e.g. from one shard.
+     * @param t ReadTimeStats to merge in
+     */
+    public void merge(ReadTimeStats t) {
+        for (Long hour : t.buckets.keySet()) {
+            getBucket(hour * BUCKET_SECONDS).merge(t.buckets.get(hour));
+        }
+    }
+
+    /**
+     * Check if any reads had start times.
+     * @return true if there are stats
+     */
+    public boolean hasTimes() {
+        return buckets.size() > 0;
+    }
+
+    /**
+     * Write stats, one line per hour of the run.
+     * @param filename output filename
+     */
+    public void writeFile(String filename) {
+        ArrayList<Long> hours = new ArrayList<Long>(buckets.keySet());
+        Collections.sort(hours);
+        long offset = ((hours.size() > 0) && (hours.get(0) >= EPOCH_HOURS)) ? hours.get(0) : 0;
+
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(filename));
+            pw.println("Hour\tReads\tBases\tN50\tAlignedReads\tIdentity\tSubstitutionRate\tIndelRate");
+            for (int i=0; i<hours.size(); i++) {
+                Bucket b = buckets.get(hours.get(i));
+                long columns = b.alignedColumns.sum();
+                double identity = 0;
+                double subRate = 0;
+                double indelRate = 0;
+
+                if (columns > 0) {
+                    identity = 100.0 * (double)b.identicalBases.sum() / (double)columns;
+                    subRate = 100.0 * (double)b.substitutions.sum() / (double)columns;
+                    indelRate = 100.0 * (double)b.indels.sum() / (double)columns;
+                }
+
+                pw.printf("%d\t%d\t%d\t%d\t%d\t%.2f\t%.2f\t%.2f", hours.get(i) - offset, b.lengths.getNumReads(), b.lengths.getTotalBases(),
+                          b.lengths.getNx(50)[0], b.nAligned.sum(), identity, subRate, indelRate);
+                pw.println("");
+            }
+            pw.close();
+        } catch (IOException e) {
+            System.out.println("writeFile exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Parse a read start time from header fields, as start_time=<seconds> or
+     * start_time=<ISO 8601 date and time>.
+     * @param fields header fields
+     * @return start time in seconds, or -1 if not found
+     */
+    public static long parseStartTime(String[] fields) {
+        for (int i=1; i<fields.length; i++) {
+            if (fields[i].startsWith("start_time=")) {
+                String value = fields[i].substring(11);
+                try {
+                    return (long)Double.parseDouble(value);
+                } catch (NumberFormatException e) {
+                }
+
+                try {
+                    return java.time.OffsetDateTime.parse(value).toEpochSecond();
+                } catch (java.time.format.DateTimeParseException e) {
+                    return -1;
+                }
+            }
+        }
+
+        return -1;
+    }
+}
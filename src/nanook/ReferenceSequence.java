@@ -12,34 +12,35 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
-import java.util.HashSet;
 import java.util.Hashtable;
-import java.util.Set;
 
 /**
  * Represents a sequence (contig) within a reference.
  * 
  * @author Richard leggett
  */
-public class ReferenceSequence implements Comparable, Serializable {
+public class ReferenceSequence implements Comparable<ReferenceSequence>, Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
     private String id = null;
     private String name = null;
     private int size = 0;
     private int binSize = 500;
     private ReferenceSequenceStats referenceStats[] = new ReferenceSequenceStats[3];
-    private KmerTable refKmerTable = new KmerTable(5);
+    private KmerTable refKmerTable;
     
     /**
      * Constructor
      * @param i sequence ID
      * @param s size (length) of sequence
      * @param n display name (may be difference to ID in file)
+     * @param k kmer size
+     * @param perBaseCoverage true to store per-base coverage
      */
-    public ReferenceSequence(String i, int s, String n) {
+    public ReferenceSequence(String i, int s, String n, int k, boolean perBaseCoverage) {
         id = i;
         size = s;
         name = n;
+        refKmerTable = new KmerTable(k);
 
         float b = size / 100;
 
@@ -53,7 +54,7 @@ public class ReferenceSequence implements Comparable, Serializable {
         }
         
         for (int t=0; t<3; t++) {
-            referenceStats[t] = new ReferenceSequenceStats(size, name);
+            referenceStats[t] = new ReferenceSequenceStats(size, name, k, perBaseCoverage);
         }
     }
     
@@ -61,10 +62,21 @@ public class ReferenceSequence implements Comparable, Serializable {
      * Open alignment summary files for each reference for each type (Template, Complement, 2D).
      * 
      * @param analysisDir directory to write files to 
+     * @param binary true to also write columnar binary tables
      */
-    public void openAlignmentSummaryFiles(String analysisDir) {
+    public void openAlignmentSummaryFiles(String analysisDir, boolean binary) {
         for (int t=0; t<3; t++) {
-            referenceStats[t].openAlignmentsTableFile(analysisDir + File.separator + name + File.separator + name + "_" + NanoOKOptions.getTypeFromInt(t) + "_alignments.txt");
+            referenceStats[t].openAlignmentsTableFile(analysisDir + File.separator + name + File.separator + name + "_" + NanoOKOptions.getTypeFromInt(t) + "_alignments.txt", binary);
+        }
+    }
+        
+    /**
+     * Open per-base pileup files for each type.
+     * @param analysisDir analysis directory
+     */
+    public void openPileupFiles(String analysisDir) {
+        for (int t=0; t<3; t++) {
+            referenceStats[t].openPileup(analysisDir + File.separator + name + File.separator + name + "_" + NanoOKOptions.getTypeFromInt(t) + "_pileup.bin");
         }
     }
         
@@ -109,8 +121,7 @@ public class ReferenceSequence implements Comparable, Serializable {
         return binSize;
     }
 
-    public int compareTo(Object o) {
-        ReferenceSequence r = (ReferenceSequence)o;
+    public int compareTo(ReferenceSequence r) {
         return name.compareTo(r.getName());
     }
 
@@ -128,33 +139,41 @@ public class ReferenceSequence implements Comparable, Serializable {
     public void writeKmerFile(int type, String filename) {
         KmerTable readKmerTable = referenceStats[type].getReadKmerTable();
         
+        // May be rewritten as more reads are parsed (watch mode)
+        referenceStats[type].clearKmerAbundance();
+        
         try {
             PrintWriter pw = new PrintWriter(new FileWriter(filename)); 
             pw.println("Kmer\tRefCount\tReadCount\tRefPc\tReadPc");
             
-            Set<String> refKeys = refKmerTable.getKeys();
-            Set<String> readKeys = readKmerTable.getKeys();
-            HashSet<String> allKeys = new HashSet();
-            int refTotal = 0;
-            int readTotal = 0;
-        
-            for (String kmer : refKeys) {    
-                refTotal += refKmerTable.get(kmer);
-                allKeys.add(kmer);
-            }
-
-            int count = 0;
-            for (String kmer : readKeys) {
-                readTotal += readKmerTable.get(kmer);
-                if (! allKeys.contains(kmer)) {
-                    allKeys.add(kmer);
-                    count++;
+            long[] refCodes = refKmerTable.getCodes();
+            long[] readCodes = readKmerTable.getCodes();
+            long refTotal = refKmerTable.getTotal();
+            long readTotal = readKmerTable.getTotal();
+            int k = refKmerTable.getKmerSize();
+            int r = 0;
+            int q = 0;
+            
+            // Both arrays are sorted, so walk them together to visit each kmer once
+            while ((r < refCodes.length) || (q < readCodes.length)) {
+                long code;
+                
+                if (q >= readCodes.length) {
+                    code = refCodes[r++];
+                } else if (r >= refCodes.length) {
+                    code = readCodes[q++];
+                } else if (refCodes[r] < readCodes[q]) {
+                    code = refCodes[r++];
+                } else if (readCodes[q] < refCodes[r]) {
+                    code = readCodes[q++];
+                } else {
+                    code = refCodes[r++];
+                    q++;
                 }
-            }
-                        
-            for (String kmer : allKeys) {
-                int refCount = refKmerTable.get(kmer);
-                int readCount = readKmerTable.get(kmer);
+                
+                String kmer = KmerTable.decode(code, k);
+                int refCount = refKmerTable.get(code);
+                int readCount = readKmerTable.get(code);
                 double refPc = 0; 
                 double readPc = 0;
                 
@@ -9,13 +9,19 @@ package nanook;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Stores stats for each reference sequence, one object per read type (Template, Complement, 2D).
+ * Alignment counters are atomic so that parser threads don't serialise on this object.
  * 
  * @author Richard Leggett
  */
@@ -26,57 +32,148 @@ public class ReferenceSequenceStats implements Serializable {
     private String name;
     private SequenceCoverage cov;
     //int[] coverage;
-    private int[] perfectKmerCounts = new int[NanoOKOptions.MAX_KMER];
-    private int[] readBestPerfectKmer = new int[NanoOKOptions.MAX_KMER];
-    private int[] readCumulativeBestPerfectKmer = new int[NanoOKOptions.MAX_KMER];
-    private int longestPerfectKmer = 0;
-    private int nReadsWithAlignments = 0;
-    private int totalReadBases = 0;
-    private int totalAlignedBases = 0;
-    private int totalAlignedBasesWithoutIndels = 0;
-    private int totalIdentical = 0;
-    private int nDeletionErrors = 0;
-    private int nInsertionErrors = 0;
-    private int nSubstitutionErrors = 0;
-    private int nInsertedBases = 0;
-    private int nDeletedBases = 0;
-    private int largestInsertion = 0;
-    private int largestDeletion = 0;
-    private int insertionSizes[] = new int[MAX_INDEL];
-    private int deletionSizes[] = new int[MAX_INDEL];
-    private int alignedPositiveStrand = 0;
-    private int alignedNegativeStrand = 0;
+    private AtomicIntegerArray perfectKmerCounts = new AtomicIntegerArray(NanoOKOptions.MAX_KMER);
+    private AtomicIntegerArray readBestPerfectKmer = new AtomicIntegerArray(NanoOKOptions.MAX_KMER);
+    private AtomicInteger longestPerfectKmer = new AtomicInteger(0);
+    private LongAdder nReadsWithAlignments = new LongAdder();
+    private LongAdder totalReadBases = new LongAdder();
+    private LongAdder totalAlignedBases = new LongAdder();
+    private LongAdder totalAlignedBasesWithoutIndels = new LongAdder();
+    private LongAdder totalIdentical = new LongAdder();
+    private LongAdder nDeletionErrors = new LongAdder();
+    private LongAdder nInsertionErrors = new LongAdder();
+    private LongAdder nSubstitutionErrors = new LongAdder();
+    private LongAdder nInsertedBases = new LongAdder();
+    private LongAdder nDeletedBases = new LongAdder();
+    private AtomicInteger largestInsertion = new AtomicInteger(0);
+    private AtomicInteger largestDeletion = new AtomicInteger(0);
+    private AtomicIntegerArray insertionSizes = new AtomicIntegerArray(MAX_INDEL);
+    private AtomicIntegerArray deletionSizes = new AtomicIntegerArray(MAX_INDEL);
+    private LongAdder alignedPositiveStrand = new LongAdder();
+    private LongAdder alignedNegativeStrand = new LongAdder();
     private long totalBases = 0;
     private long totalReads = 0;
-    private KmerTable readKmerTable = new KmerTable(5);
+    private int kmerSize = 5;
+    private KmerTable readKmerTable;
+    private transient ThreadLocal<KmerTable> threadKmerTable = null;
+    private transient ConcurrentLinkedQueue<KmerTable> kmerShards = null;
     private AlignmentsTableFile atf;
+    private transient PileupTable pileup = null;
     private ArrayList<KmerAbundance> kmerAbundance = new ArrayList();
 
     /** 
      * Constructor.
      * @param size size (length) of reference
      * @param n name of reference
+     * @param k kmer size for read kmer counting
+     * @param perBaseCoverage true to store per-base coverage as well as binned
      */
-    public ReferenceSequenceStats(int s, String n) {
+    public ReferenceSequenceStats(int s, String n, int k, boolean perBaseCoverage) {
         size = s;
         name = n;
-        cov = new SequenceCoverage(size);
+        kmerSize = k;
+        readKmerTable = new KmerTable(k);
+        cov = new SequenceCoverage(size, perBaseCoverage);
         //coverage = new int[size];
     }
     
+    /**
+     * Raise an atomic value to at least v.
+     * @param a value to update
+     * @param v candidate maximum
+     */
+    private static void updateMax(AtomicInteger a, int v) {
+        int current = a.get();
+        while ((v > current) && !a.compareAndSet(current, v)) {
+            current = a.get();
+        }
+    }
+    
+    /**
+     * Add counts from another ReferenceSequenceStats for the same sequence
+     * and type, e.g. from one shard of a sharded analysis.
+     * @param r ReferenceSequenceStats to merge in
+     */
+    public void merge(ReferenceSequenceStats r) {
+        cov.merge(r.cov);
+        for (int i=0; i<perfectKmerCounts.length(); i++) {
+            perfectKmerCounts.addAndGet(i, r.perfectKmerCounts.get(i));
+            readBestPerfectKmer.addAndGet(i, r.readBestPerfectKmer.get(i));
+        }
+        for (int i=0; i<MAX_INDEL; i++) {
+            insertionSizes.addAndGet(i, r.insertionSizes.get(i));
+            deletionSizes.addAndGet(i, r.deletionSizes.get(i));
+        }
+        updateMax(longestPerfectKmer, r.longestPerfectKmer.get());
+        updateMax(largestInsertion, r.largestInsertion.get());
+        updateMax(largestDeletion, r.largestDeletion.get());
+        nReadsWithAlignments.add(r.nReadsWithAlignments.sum());
+        totalReadBases.add(r.totalReadBases.sum());
+        totalAlignedBases.add(r.totalAlignedBases.sum());
+        totalAlignedBasesWithoutIndels.add(r.totalAlignedBasesWithoutIndels.sum());
+        totalIdentical.add(r.totalIdentical.sum());
+        nDeletionErrors.add(r.nDeletionErrors.sum());
+        nInsertionErrors.add(r.nInsertionErrors.sum());
+        nSubstitutionErrors.add(r.nSubstitutionErrors.sum());
+        nInsertedBases.add(r.nInsertedBases.sum());
+        nDeletedBases.add(r.nDeletedBases.sum());
+        alignedPositiveStrand.add(r.alignedPositiveStrand.sum());
+        alignedNegativeStrand.add(r.alignedNegativeStrand.sum());
+        getReadKmerTable().merge(r.getReadKmerTable());
+    }
+    
+    /**
+     * Merge per-thread kmer tables before writing, as they aren't serialized.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getReadKmerTable();
+        out.defaultWriteObject();
+    }
+    
     /**
      * Create an alignments table file.
      * @param filename flename
+     * @param binary true to also write a columnar binary table
      */
-    public synchronized void openAlignmentsTableFile(String filename) {
-        atf = new AlignmentsTableFile(filename);
+    public synchronized void openAlignmentsTableFile(String filename, boolean binary) {
+        atf = new AlignmentsTableFile(filename, binary);
     }
         
+    /**
+     * Create a per-base pileup, backed by the given binary file.
+     * @param filename pileup filename
+     */
+    public synchronized void openPileup(String filename) {
+        pileup = new PileupTable(size, filename);
+    }
+    
+    /**
+     * Get the per-base pileup.
+     * @return PileupTable, or null if not storing pileup
+     */
+    public PileupTable getPileup() {
+        return pileup;
+    }
+    
+    /**
+     * Bring the pileup binary file up to date and write positions with high
+     * error rates. The pileup stays open, so this can be called on each watch
+     * update.
+     * @param filename summary filename
+     * @param threshold minimum error rate for a position to be written
+     */
+    public synchronized void writePileupSummary(String filename, double threshold) {
+        if (pileup != null) {
+            pileup.flush();
+            pileup.writeSummary(filename, threshold);
+        }
+    }
+    
     /**
      * Get the associated AlignmentsTableFile object
      * @return an AlignmentsTableFile
      */
-    public synchronized AlignmentsTableFile getAlignmentsTableFile() {
+    public AlignmentsTableFile getAlignmentsTableFile() {
             return  atf;
     }
     
@@ -84,33 +181,30 @@ public class ReferenceSequenceStats implements Serializable {
      * Get number of reads with alignments.
      * @return number of reads
      */
-    public synchronized int getNumberOfReadsWithAlignments() {
-        return nReadsWithAlignments;
+    public int getNumberOfReadsWithAlignments() {
+        return nReadsWithAlignments.intValue();
     }
     
     /**
      * Get longest perfect kmer length.
      * @return length longest perfect kmer, in bases
      */
-    public synchronized int getLongestPerfectKmer() {
-        return longestPerfectKmer;
+    public int getLongestPerfectKmer() {
+        return longestPerfectKmer.get();
     }
     
     /**
      * Store all perfect kmer sizes for later analysis.
      * @param size size of kmer
      */
-    public synchronized void addPerfectKmer(int size) {
+    public void addPerfectKmer(int size) {
         if (size >= NanoOKOptions.MAX_KMER) {
             System.out.println("Error: very unlikely situation with perfect kmer of size " + size);
             System.exit(1);
         }
         
-        perfectKmerCounts[size]++;
-        
-        if (size > longestPerfectKmer) {
-            longestPerfectKmer = size;
-        }
+        perfectKmerCounts.incrementAndGet(size);
+        updateMax(longestPerfectKmer, size);
     }
     
     /**
@@ -118,7 +212,7 @@ public class ReferenceSequenceStats implements Serializable {
      * @param start start position
      * @param size size
      */
-    public synchronized void addCoverage(int start, int size) {
+    public void addCoverage(int start, int size) {
         cov.addCoverage(start, size);
         //for (int i=start; i<(start+size); i++) {
         //    coverage[i]++;
@@ -129,14 +223,9 @@ public class ReferenceSequenceStats implements Serializable {
      * Store best perfect kmer length for each read.
      * @param bestKmer length of best perfect kmer
      */
-    public synchronized void addReadBestKmer(int bestKmer) {
-        readBestPerfectKmer[bestKmer]++;
-        
-        for (int i=1; i<=bestKmer; i++) {
-            readCumulativeBestPerfectKmer[i]++;
-        }
-        
-        nReadsWithAlignments++;
+    public void addReadBestKmer(int bestKmer) {
+        readBestPerfectKmer.incrementAndGet(bestKmer);
+        nReadsWithAlignments.increment();
     }
     
     /**
@@ -146,6 +235,9 @@ public class ReferenceSequenceStats implements Serializable {
      */
     public synchronized void writeCoverageData(String filename, int binSize) {
         cov.writeCoverageData(filename, binSize);
+        if (cov.hasPerBaseCoverage()) {
+            cov.writePerBaseCoverageData(filename.replaceAll("\\.txt$", "_perbase.txt"));
+        }
 //        try {
 //            PrintWriter pw = new PrintWriter(new FileWriter(filename));            
 //            for (int i=0; i<(size-binSize); i+=binSize) {
@@ -171,8 +263,8 @@ public class ReferenceSequenceStats implements Serializable {
     public synchronized void writePerfectKmerHist(String filename) {
         try {
             PrintWriter pw = new PrintWriter(new FileWriter(filename));
-            for (int i=1; i<=longestPerfectKmer; i++) {
-                pw.printf("%d\t%d", i, perfectKmerCounts[i]);
+            for (int i=1; i<=longestPerfectKmer.get(); i++) {
+                pw.printf("%d\t%d", i, perfectKmerCounts.get(i));
                 pw.println("");
             }            
             pw.close();
@@ -190,14 +282,16 @@ public class ReferenceSequenceStats implements Serializable {
     public synchronized void writeBestPerfectKmerHist(String filename) {
         try {
             PrintWriter pw = new PrintWriter(new FileWriter(filename));
-            for (int i=1; i<=longestPerfectKmer; i++) {
+            int nAligned = nReadsWithAlignments.intValue();
+            for (int i=1; i<=longestPerfectKmer.get(); i++) {
                 double pc = 0;
+                int count = readBestPerfectKmer.get(i);
 
-                if ((readBestPerfectKmer[i] > 0) && (nReadsWithAlignments > 0)) {
-                    pc = ((double)100.0 * readBestPerfectKmer[i]) / (double)nReadsWithAlignments;
+                if ((count > 0) && (nAligned > 0)) {
+                    pc = ((double)100.0 * count) / (double)nAligned;
                 } 
 
-                pw.printf("%d\t%d\t%.2f", i, readBestPerfectKmer[i], pc);
+                pw.printf("%d\t%d\t%.2f", i, count, pc);
                 pw.println("");
             }            
             pw.close();
@@ -213,22 +307,26 @@ public class ReferenceSequenceStats implements Serializable {
      * @param filename output filename
      */
     public synchronized void writeBestPerfectKmerHistCumulative(String filename) {
+        int longest = longestPerfectKmer.get();
+        int[] readCumulativeBestPerfectKmer = new int[longest + 2];
         int nr = 0;
         
-        for (int i=1; i<=longestPerfectKmer; i++) {
-            nr += readBestPerfectKmer[i];
+        // Number of reads whose best perfect kmer is at least i
+        for (int i=longest; i>=1; i--) {
+            readCumulativeBestPerfectKmer[i] = readCumulativeBestPerfectKmer[i+1] + readBestPerfectKmer.get(i);
         }
+        nr = readCumulativeBestPerfectKmer[1];
         
-        if (nReadsWithAlignments != nr) {
-            System.out.println("Discrepancy: "+nr+" not equal to "+nReadsWithAlignments);
+        if (nReadsWithAlignments.intValue() != nr) {
+            System.out.println("Discrepancy: "+nr+" not equal to "+nReadsWithAlignments.intValue());
         }
         
         try {
             PrintWriter pw = new PrintWriter(new FileWriter(filename));
-            for (int i=1; i<=longestPerfectKmer; i++) {
+            for (int i=1; i<=longest; i++) {
                 double pc = 0;
                 
-                if ((readCumulativeBestPerfectKmer[i]> 0) && (nReadsWithAlignments > 0)){
+                if ((readCumulativeBestPerfectKmer[i]> 0) && (nr > 0)){
                     pc = ((double)100.0 * readCumulativeBestPerfectKmer[i]) / (double)nr; //(double)nReadsWithAlignments;
                 }
                 
@@ -248,7 +346,7 @@ public class ReferenceSequenceStats implements Serializable {
      * @param format format string for output
      */
     public synchronized void writeSummary(PrintWriter pw, String format) {
-        pw.printf(format, name, size, nReadsWithAlignments, longestPerfectKmer);
+        pw.printf(format, name, size, nReadsWithAlignments.intValue(), longestPerfectKmer.get());
         pw.println("");
     }
         
@@ -256,9 +354,10 @@ public class ReferenceSequenceStats implements Serializable {
      * Get mean read length
      * @return mean read length
      */
-    public synchronized double getMeanReadLength() {
-        if (nReadsWithAlignments > 0) {
-            return (double)totalReadBases / (double)nReadsWithAlignments;
+    public double getMeanReadLength() {
+        long n = nReadsWithAlignments.sum();
+        if (n > 0) {
+            return (double)totalReadBases.sum() / (double)n;
         } else {
             return 0.0;
         }
@@ -270,18 +369,18 @@ public class ReferenceSequenceStats implements Serializable {
      * @param alignedSize number of aligned bases
      * @param identicalBases number of identical bases
      */
-    public synchronized void addAlignmentStats(int querySize, int alignedSize, int alignedSizeMinusIndels, int identicalBases, String hitStrand, String queryStrand) {
-        totalAlignedBases += alignedSize;
+    public void addAlignmentStats(int querySize, int alignedSize, int alignedSizeMinusIndels, int identicalBases, String hitStrand, String queryStrand) {
+        totalAlignedBases.add(alignedSize);
         //System.out.println("\nAlignedBases " + alignedSize);
-        totalAlignedBasesWithoutIndels += alignedSizeMinusIndels;
-        totalReadBases += querySize;
-        totalIdentical += identicalBases;
+        totalAlignedBasesWithoutIndels.add(alignedSizeMinusIndels);
+        totalReadBases.add(querySize);
+        totalIdentical.add(identicalBases);
         
         if (hitStrand.equals("+")) {
             if (queryStrand.equals("+")) {
-                alignedPositiveStrand++;
+                alignedPositiveStrand.increment();
             } else if (queryStrand.equals("-")) {
-                alignedNegativeStrand++;
+                alignedNegativeStrand.increment();
             }
         }
     }
@@ -292,18 +391,16 @@ public class ReferenceSequenceStats implements Serializable {
      * @param kmer - kmer before error
      * @param stats - ReadSetStats associated with the error
      */
-    public synchronized void addDeletionError(int size, String kmer, ReadSetStats stats) {
+    public void addDeletionError(int size, String kmer, ReadSetStats stats) {
         //System.out.println("Delete " + size);
         if (size >= MAX_INDEL) {
             System.out.println("Error: indel much larger than expected ("+size+") - possible parsing error");
             System.out.println("");
         } else {
-            nDeletionErrors++;
-            nDeletedBases += size;
-            deletionSizes[size]++;
-            if (size > largestDeletion) {
-                largestDeletion = size;
-            }
+            nDeletionErrors.increment();
+            nDeletedBases.add(size);
+            deletionSizes.incrementAndGet(size);
+            updateMax(largestDeletion, size);
             stats.addDeletionError(size, kmer);
         }
     }
@@ -314,18 +411,16 @@ public class ReferenceSequenceStats implements Serializable {
      * @param kmer - kmer before error
      * @param stats - ReadSetStats associated with the error
      */
-    public synchronized void addInsertionError(int size, String kmer, ReadSetStats stats) {
+    public void addInsertionError(int size, String kmer, ReadSetStats stats) {
         //System.out.println("Insert " + size);
         if (size >= MAX_INDEL) {
             System.out.println("Error: indel much larger than expected ("+size+") - possible parsing error");
             System.out.println("");
         } else {
-            nInsertionErrors++;
-            nInsertedBases += size;
-            insertionSizes[size]++;
-            if (size > largestInsertion) {
-                largestInsertion = size;
-            }
+            nInsertionErrors.increment();
+            nInsertedBases.add(size);
+            insertionSizes.incrementAndGet(size);
+            updateMax(largestInsertion, size);
             stats.addInsertionError(size, kmer);
         }
     }
@@ -334,16 +429,16 @@ public class ReferenceSequenceStats implements Serializable {
      * Get the mean deletion size
      * @return size, as double
      */
-    public synchronized double getMeanDeletionSize() {
-        return (double)nDeletedBases / (double)nDeletionErrors;
+    public double getMeanDeletionSize() {
+        return (double)nDeletedBases.sum() / (double)nDeletionErrors.sum();
     }
 
     /**
      * Get the mean insertion size
      * @return size, as double
      */
-    public synchronized double getMeanInsertionSize() {
-        return (double)nInsertedBases / (double)nInsertionErrors;
+    public double getMeanInsertionSize() {
+        return (double)nInsertedBases.sum() / (double)nInsertionErrors.sum();
     } 
     
     /** 
@@ -353,8 +448,8 @@ public class ReferenceSequenceStats implements Serializable {
      * @param subChar - substituted base
      * @param stats - ReadSetStats associated with the error
      */
-    public synchronized void addSubstitutionError(String kmer, char refChar, char subChar, ReadSetStats stats) {
-        nSubstitutionErrors++;
+    public void addSubstitutionError(String kmer, char refChar, char subChar, ReadSetStats stats) {
+        nSubstitutionErrors.increment();
         //System.out.println("Kmer before substitution "+kmer);
         stats.addSubstitutionError(kmer, refChar, subChar);
     }
@@ -363,11 +458,13 @@ public class ReferenceSequenceStats implements Serializable {
      * Get percent identity of aligned bases.
      * @return identity
      */
-    public synchronized double getAlignedPercentIdentical() {
-        if ((totalIdentical == 0) || (totalAlignedBases == 0)) {
+    public double getAlignedPercentIdentical() {
+        long identical = totalIdentical.sum();
+        long aligned = totalAlignedBases.sum();
+        if ((identical == 0) || (aligned == 0)) {
             return 0;
         } else {           
-            return (100.0 * totalIdentical) / totalAlignedBases;
+            return (100.0 * identical) / aligned;
         }
     }
 
@@ -375,11 +472,13 @@ public class ReferenceSequenceStats implements Serializable {
      * Get percent identity of aligned bases.
      * @return identity
      */
-    public synchronized double getAlignedPercentIdenticalWithoutIndels() {
-        if ((totalIdentical == 0) || (totalAlignedBasesWithoutIndels == 0)) {
+    public double getAlignedPercentIdenticalWithoutIndels() {
+        long identical = totalIdentical.sum();
+        long aligned = totalAlignedBasesWithoutIndels.sum();
+        if ((identical == 0) || (aligned == 0)) {
             return 0;
         } else {           
-            return (100.0 * totalIdentical) / totalAlignedBasesWithoutIndels;
+            return (100.0 * identical) / aligned;
         }
     }    
     
@@ -387,11 +486,13 @@ public class ReferenceSequenceStats implements Serializable {
      * Get percent identity of read.
      * @return identity
      */
-    public synchronized double getReadPercentIdentical() {
-        if ((totalIdentical == 0) || (totalReadBases == 0)) {
+    public double getReadPercentIdentical() {
+        long identical = totalIdentical.sum();
+        long readBases = totalReadBases.sum();
+        if ((identical == 0) || (readBases == 0)) {
             return 0;
         } else {
-            return (100.0 * totalIdentical) / totalReadBases;
+            return (100.0 * identical) / readBases;
         }
     }
 
@@ -399,35 +500,37 @@ public class ReferenceSequenceStats implements Serializable {
      * Getnumber of insertion errors.
      * @return number
      */
-    public synchronized int getNumberOfInsertionErrors() {
-        return nInsertionErrors;
+    public int getNumberOfInsertionErrors() {
+        return nInsertionErrors.intValue();
     }
 
     /**
      * Get number of deletion errors.
      * @return number
      */
-    public synchronized int getNumberOfDeletionErrors() {
-        return nDeletionErrors;
+    public int getNumberOfDeletionErrors() {
+        return nDeletionErrors.intValue();
     }
     
     /**
      * Get number of substitution errors.
      * @return number
      */
-    public synchronized int getNumberOfSubstitutionErrors() {
-        return nSubstitutionErrors;
+    public int getNumberOfSubstitutionErrors() {
+        return nSubstitutionErrors.intValue();
     }
     
     /**
      * Get percentage of insertion errors
      * @return percentage
      */
-    public synchronized double getPercentInsertionErrors() {
-        if ((nInsertedBases == 0) || (totalAlignedBases == 0)) {
+    public double getPercentInsertionErrors() {
+        long errors = nInsertedBases.sum();
+        long aligned = totalAlignedBases.sum();
+        if ((errors == 0) || (aligned == 0)) {
             return 0;
         } else {
-            return (100.0 * nInsertedBases) / (totalAlignedBases);
+            return (100.0 * errors) / (aligned);
         }
     }
 
@@ -435,11 +538,13 @@ public class ReferenceSequenceStats implements Serializable {
      * Get percentage of deletion errors
      * @return percentage
      */
-    public synchronized double getPercentDeletionErrors() {
-        if ((nDeletedBases == 0) || (totalAlignedBases == 0)) {
+    public double getPercentDeletionErrors() {
+        long errors = nDeletedBases.sum();
+        long aligned = totalAlignedBases.sum();
+        if ((errors == 0) || (aligned == 0)) {
             return 0;
         } else {
-            return (100.0 * nDeletedBases) / (totalAlignedBases);
+            return (100.0 * errors) / (aligned);
         }
     }
     
@@ -447,11 +552,13 @@ public class ReferenceSequenceStats implements Serializable {
      * Get percentage of substitution errors
      * @return percentage
      */
-    public synchronized double getPercentSubstitutionErrors() {
-        if ((nSubstitutionErrors == 0) || (totalAlignedBases == 0)) {
+    public double getPercentSubstitutionErrors() {
+        long errors = nSubstitutionErrors.sum();
+        long aligned = totalAlignedBases.sum();
+        if ((errors == 0) || (aligned == 0)) {
             return 0;
         } else {
-           return (100.0 * nSubstitutionErrors) / (totalAlignedBases);
+           return (100.0 * errors) / (aligned);
         }
     }  
     
@@ -459,8 +566,8 @@ public class ReferenceSequenceStats implements Serializable {
      * Get the number of aligned bases
      * @return number of bases
      */
-    public synchronized int getTotalAlignedBases() {
-        return totalAlignedBases;
+    public long getTotalAlignedBases() {
+        return totalAlignedBases.sum();
     }
     
     /**
@@ -470,9 +577,9 @@ public class ReferenceSequenceStats implements Serializable {
     public synchronized void writeInsertionStats(String filename) {
         try {
             PrintWriter pw = new PrintWriter(new FileWriter(filename)); 
-            for (int i=1; i<=largestInsertion; i++) {
+            for (int i=1; i<=largestInsertion.get(); i++) {
                 //pw.println(i + "\t" + insertionSizes[i]);
-                pw.printf("%d\t%.4f", i, (100.0 * (double)insertionSizes[i]/(double)nInsertionErrors));
+                pw.printf("%d\t%.4f", i, (100.0 * (double)insertionSizes.get(i)/(double)nInsertionErrors.sum()));
                 pw.println("");
            }
             pw.close();
@@ -490,9 +597,9 @@ public class ReferenceSequenceStats implements Serializable {
     public synchronized void writeDeletionStats(String filename) {
         try {
             PrintWriter pw = new PrintWriter(new FileWriter(filename));
-            for (int i=1; i<=largestDeletion; i++) {
+            for (int i=1; i<=largestDeletion.get(); i++) {
                 //pw.println(i + "\t" + deletionSizes[i]);
-                pw.printf("%d\t%.4f", i, (100.0 * (double)deletionSizes[i]/(double)nDeletionErrors));            
+                pw.printf("%d\t%.4f", i, (100.0 * (double)deletionSizes.get(i)/(double)nDeletionErrors.sum()));            
                 pw.println("");
                 }
                 pw.close();
@@ -507,9 +614,10 @@ public class ReferenceSequenceStats implements Serializable {
      * Get percent of reads aligned on +ve strand
      * @return count
      */
-    public synchronized double getAlignedPositiveStrandPercent() {
-        if (alignedPositiveStrand > 0) {
-            return (100.0 * (double)alignedPositiveStrand)/(double)(alignedPositiveStrand + alignedNegativeStrand);
+    public double getAlignedPositiveStrandPercent() {
+        long positive = alignedPositiveStrand.sum();
+        if (positive > 0) {
+            return (100.0 * (double)positive)/(double)(positive + alignedNegativeStrand.sum());
         } else {
             return 0;
         }
@@ -519,30 +627,74 @@ public class ReferenceSequenceStats implements Serializable {
      * Get percent of reads aligned on -ve strand
      * @return count
      */
-    public synchronized double getAlignedNegativeStrandPercent() {
-        if (alignedNegativeStrand > 0) {
-            return (100.0 * (double)alignedNegativeStrand)/(double)(alignedPositiveStrand + alignedNegativeStrand);
+    public double getAlignedNegativeStrandPercent() {
+        long negative = alignedNegativeStrand.sum();
+        if (negative > 0) {
+            return (100.0 * (double)negative)/(double)(alignedPositiveStrand.sum() + negative);
         } else {
             return 0;
         }
     }
     
-    public KmerTable getReadKmerTable() {
+    /**
+     * Get the calling thread's read kmer table. Each parser thread counts into
+     * its own table, so counting needs no locking. Tables are merged by
+     * getReadKmerTable.
+     * @return KmerTable for this thread
+     */
+    public KmerTable getThreadReadKmerTable() {
+        ThreadLocal<KmerTable> tl;
+        
+        synchronized(this) {
+            if (threadKmerTable == null) {
+                threadKmerTable = new ThreadLocal<KmerTable>();
+                kmerShards = new ConcurrentLinkedQueue<KmerTable>();
+            }
+            tl = threadKmerTable;
+        }
+        
+        KmerTable t = tl.get();
+        if (t == null) {
+            t = new KmerTable(kmerSize);
+            tl.set(t);
+            kmerShards.add(t);
+        }
+        
+        return t;
+    }
+    
+    /**
+     * Get read kmer table, merging in any per-thread tables. Should only be
+     * called while no parsers are running; if parsing continues afterwards,
+     * new per-thread tables are made.
+     * @return KmerTable of all read kmers
+     */
+    public synchronized KmerTable getReadKmerTable() {
+        if (kmerShards != null) {
+            KmerTable t;
+            while ((t = kmerShards.poll()) != null) {
+                readKmerTable.merge(t);
+            }
+            threadKmerTable = null;
+            kmerShards = null;
+        }
+        
         return readKmerTable;
     }
 
+    public void clearKmerAbundance() {
+        kmerAbundance.clear();
+    }
+    
     public void addKmerAbundance(String kmer, double refAbundance, double readAbundance) {
         kmerAbundance.add(new KmerAbundance(kmer, refAbundance, readAbundance));
     }
     
     public void sortKmerAbundance() {
         Collections.sort(kmerAbundance);
-        for (int i=0; i<10; i++) {
-            KmerAbundance k = kmerAbundance.get(i);
-        }
     }
     
-    public ArrayList getKmerAbundance() {
+    public ArrayList<KmerAbundance> getKmerAbundance() {
         return kmerAbundance;
     }
 }
@@ -0,0 +1,102 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett
+ *
+ * Copyright 2015 The Genome Analysis Centre (TGAC)
+ */
+
+package nanook;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Summary values for one reference and read type, as stored in a sample
+ * summary file. Only the most over- and under-represented kmers are kept.
+ *
+ * @author Richard Leggett
+ */
+public class ReferenceSummary {
+    public final static int N_KMERS = 10;
+    private String id;
+    private int numReadsWithAlignments = 0;
+    private String[] overRepresented;
+    private String[] underRepresented;
+
+    /**
+     * Write summary values for a reference.
+     * @param dos stream to write to
+     * @param id reference ID
+     * @param r reference stats
+     */
+    public static void write(DataOutputStream dos, String id, ReferenceSequenceStats r) throws IOException {
+        ArrayList<KmerAbundance> ka = r.getKmerAbundance();
+        int n = Math.min(N_KMERS, ka.size());
+
+        r.sortKmerAbundance();
+        dos.writeUTF(id);
+        dos.writeInt(r.getNumberOfReadsWithAlignments());
+        dos.writeInt(n);
+        for (int i=0; i<n; i++) {
+            dos.writeUTF(ka.get(i).getKmer());
+        }
+        for (int i=0; i<n; i++) {
+            dos.writeUTF(ka.get(ka.size() - 1 - i).getKmer());
+        }
+    }
+
+    /**
+     * Read summary values for a reference.
+     * @param dis stream to read from
+     */
+    public ReferenceSummary(DataInputStream dis) throws IOException {
+        id = dis.readUTF();
+        numReadsWithAlignments = dis.readInt();
+
+        int n = dis.readInt();
+        overRepresented = new String[n];
+        underRepresented = new String[n];
+        for (int i=0; i<n; i++) {
+            overRepresented[i] = dis.readUTF();
+        }
+        for (int i=0; i<n; i++) {
+            underRepresented[i] = dis.readUTF();
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getNumberOfReadsWithAlignments() {
+        return numReadsWithAlignments;
+    }
+
+    /**
+     * Get number of over (and under) represented kmers stored.
+     * @return number of kmers
+     */
+    public int getNumberOfKmers() {
+        return overRepresented.length;
+    }
+
+    /**
+     * Get an over-represented kmer.
+     * @param i rank, 0 being most over-represented
+     * @return kmer
+     */
+    public String getOverRepresentedKmer(int i) {
+        return overRepresented[i];
+    }
+
+    /**
+     * Get an under-represented kmer.
+     * @param i rank, 0 being most under-represented
+     * @return kmer
+     */
+    public String getUnderRepresentedKmer(int i) {
+        return underRepresented[i];
+    }
+}
@@ -37,7 +37,10 @@ public class References implements Serializable {
         overallStats = s;
     }
     
-    public void readSizesFile() {
+    /**
+     * Find the sizes file of the reference, generating it if there isn't one.
+     */
+    private void findSizesFile() {
         sizesFile = new File(options.getReferenceFile()+".sizes");
         if (! sizesFile.exists()) {
             int extensionIndex = options.getReferenceFile().lastIndexOf('.');
@@ -54,6 +57,40 @@ public class References implements Serializable {
             sr.indexFASTAFile(options.getReferenceFile(), options.getReferenceFile()+".sizes" , false);
             sizesFile = new File(options.getReferenceFile()+".sizes");
         }        
+    }
+    
+    /**
+     * Read IDs and sizes of reference sequences from the sizes file, without
+     * loading the references or making any directories.
+     * @return sizes, indexed by sequence ID
+     */
+    public Hashtable<String,Integer> readSizes() {
+        Hashtable<String,Integer> sizes = new Hashtable<String,Integer>();
+        
+        findSizesFile();
+        try
+        {
+            BufferedReader br = new BufferedReader(new FileReader(sizesFile));
+            String line = br.readLine();
+            while (line != null) {
+                if (!line.startsWith("#") && (!line.startsWith("SequenceID"))) {
+                    String[] values = line.split("\\t");
+                    sizes.put(values[0], Integer.parseInt(values[1]));
+                }
+                line = br.readLine();
+            }
+            br.close();
+        } catch (Exception e) {
+            System.out.println("NanotoolsReferences Exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+        
+        return sizes;
+    }
+    
+    public void readSizesFile() {
+        findSizesFile();
         
         System.out.println("Reading reference sizes and making directories");
         
@@ -80,11 +117,14 @@ public class References implements Serializable {
 
                     System.out.println("\t" + values[2] + "\t" + size);
 
-                    refSeqById = new ReferenceSequence(values[0], size, values[2]);
+                    refSeqById = new ReferenceSequence(values[0], size, values[2], options.getKmerSize(), options.doPerBaseCoverage());
                     options.checkAndMakeReferenceAnalysisDir(refSeqById.getName());
                     referenceSeqIds.put(values[0], refSeqById);
                     referenceSeqNames.put(values[2], refSeqById);
-                    refSeqById.openAlignmentSummaryFiles(options.getAnalysisDir());
+                    refSeqById.openAlignmentSummaryFiles(options.getAnalysisDir(), options.doBinaryTables());
+                    if (options.doPileup()) {
+                        refSeqById.openPileupFiles(options.getAnalysisDir());
+                    }
 
                     if (values[0].length() > longestId) {
                         longestId = values[0].length();
@@ -116,7 +156,7 @@ public class References implements Serializable {
             String id = null;
             String name = null;
             String seq = "";
-            String previousKmerString = "";
+            KmerTable.RollingEncoder kmerEncoder = new KmerTable.RollingEncoder();
  
             System.out.println("");
             System.out.println("Calculating reference GC");
@@ -141,25 +181,14 @@ public class References implements Serializable {
                         currentRef = getReferenceById(id);
                         System.out.println("\t" + currentRef.getName());
                         refKmerTable = currentRef.getKmerTable();
+                        kmerEncoder.reset();
                         gcc = new GCCounter(currentRef.getBinSize(), options.getAnalysisDir() + File.separator + currentRef.getName() + File.separator + currentRef.getName() + "_gc.txt");
                     }                                        
                 }
                 // Continuing sequence read 
                 else if (line != null) {
-                    String kmerSeq = previousKmerString + line;                    
-                    int k = refKmerTable.getKmerSize();
-
-                    // Store kmers
-                    for (int o=0; o<kmerSeq.length() - k; o++) {
-                        refKmerTable.countKmer(kmerSeq.substring(o, o+5));
-                    }
-                    
-                    // Store end k-1 bases for start of next kmer
-                    if (line.length() > k) {
-                        previousKmerString = line.substring(line.length() - k + 1);
-                    } else {
-                        previousKmerString = "";
-                    }
+                    // Store kmers - encoder carries the last k-1 bases over to the next line
+                    refKmerTable.countKmers(kmerEncoder, line);
                     
                     // Now for GC graph
                     gcc.addString(line);
@@ -184,6 +213,19 @@ public class References implements Serializable {
         readReferenceFile();
     }    
     
+    /**
+     * Add a reference sequence which has already been read, e.g. from a
+     * sample summary file.
+     * @param r ReferenceSequence to add
+     */
+    public void addReference(ReferenceSequence r) {
+        referenceSeqIds.put(r.getId(), r);
+        referenceSeqNames.put(r.getName(), r);
+        if (r.getId().length() > longestId) {
+            longestId = r.getId().length();
+        }
+    }
+    
     /**
      * Get a ReferenceSequence object from sequence ID.
      */
@@ -211,8 +253,8 @@ public class References implements Serializable {
      * Return sorted set of all reference sequence IDs.
      * @return a String set
      */
-    public ArrayList getSortedReferences() {
-        ArrayList sortedReferences = new ArrayList();
+    public ArrayList<ReferenceSequence> getSortedReferences() {
+        ArrayList<ReferenceSequence> sortedReferences = new ArrayList<ReferenceSequence>();
         Set<String> keys = referenceSeqIds.keySet();
         
         for(String id : keys) {
@@ -240,9 +282,23 @@ public class References implements Serializable {
             ref.getStatsByType(type).writeInsertionStats(options.getAnalysisDir() + File.separator + ref.getName() + File.separator + ref.getName() + "_" + options.getTypeFromInt(type) + "_insertions.txt");
             ref.getStatsByType(type).writeDeletionStats(options.getAnalysisDir() + File.separator + ref.getName() + File.separator + ref.getName() + "_" + options.getTypeFromInt(type) + "_deletions.txt");
             ref.writeKmerFile(type, options.getAnalysisDir() + File.separator + ref.getName() + File.separator + ref.getName() + "_" + options.getTypeFromInt(type) + "_kmers.txt");
+            ref.getStatsByType(type).writePileupSummary(options.getAnalysisDir() + File.separator + ref.getName() + File.separator + ref.getName() + "_" + options.getTypeFromInt(type) + "_pileup_summary.txt", options.getPileupThreshold());
         }        
     }
     
+    /**
+     * Write out lines batched in the alignments table files for a type.
+     * @param type a type, as defined in NanoOKOptions (for example TYPE_TEMPLATE)
+     */
+    public void flushAlignmentsTableFiles(int type) {
+        for (ReferenceSequence ref : referenceSeqIds.values()) {
+            AlignmentsTableFile atf = ref.getStatsByType(type).getAlignmentsTableFile();
+            if (atf != null) {
+                atf.flush();
+            }
+        }
+    }
+    
     /**
      * Get the length of the longest ID - used for formatting output.
      * @return length of longest sequence ID
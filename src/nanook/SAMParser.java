@@ -159,7 +159,7 @@ public abstract class SAMParser {
         // Read all alignmnets and put into an ArrayList
         try
         {
-            options.getLog().println("Got file");
+            options.getLog().println(NanoOKLog.LOG_DEBUG, "Got file");
             BufferedReader br = new BufferedReader(new FileReader(filename));
             String line;
             
@@ -171,18 +171,19 @@ public abstract class SAMParser {
                     } else if (line.startsWith("@PG")) {
                         processProgramTag(line);
                     } else if (!line.startsWith("@")) {
-                        options.getLog().println("Got line");
                         Alignment al = processAlignmentLine(filename, line, filename+".last", overallStats);
                         if (al != null) {
                             alignments.add(al);
+                            if (options.getLog().isLogging(NanoOKLog.LOG_DEBUG)) {
+                                options.getLog().println(NanoOKLog.LOG_DEBUG, "Added alignment for " + al.getQueryName());
+                            }
                         }                         
-                        options.getLog().println("Added");
                     }
                 }
             } while (line != null);            
             br.close();
  
-            options.getLog().println("Finished file");
+            options.getLog().println(NanoOKLog.LOG_DEBUG, "Finished file");
             
             if (alignments.size() == 0) {
                 nonAlignedSummaryFile.writeNoAlignmentMessage(leafName);
@@ -192,12 +193,12 @@ public abstract class SAMParser {
         } catch (Exception e) {
             System.out.println("parseFile Exception:");
             e.printStackTrace();
-            options.getLog().println("Exception parsing "+filename);
+            options.getLog().println(NanoOKLog.LOG_ERROR, "Exception parsing "+filename);
             options.getLog().close();
             System.exit(1);
         }
                 
-        options.getLog().println("Returning");
+        options.getLog().println(NanoOKLog.LOG_DEBUG, "Returning");
 
         return alignments.size();
     }
@@ -1,7 +1,7 @@
 /*
  * Program: NanoOK
  * Author:  Richard M. Leggett
- * 
+ *
  * Copyright 2015 The Genome Analysis Centre (TGAC)
  */
 
@@ -9,53 +9,50 @@ package nanook;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InvalidClassException;
-import java.io.ObjectInputStream;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Compare samples. Samples are streamed: each is loaded (a few ahead, in
+ * parallel), its rows written to the comparison files and the comparison
+ * store and then dropped, so only the kmer tables for the report are kept
+ * across samples.
  *
  * @author Richard Leggett
  */
 public class SampleComparer {
     private NanoOKOptions options;
-    private ArrayList<String> sampleNames = new ArrayList();
-    private ArrayList<OverallStats> sampleStats = new ArrayList();
-    
+    private ArrayList<String> sampleNames = new ArrayList<String>();
+    private ArrayList<String> sampleDirs = new ArrayList<String>();
+    private Hashtable<String,ArrayList<String[]>> overKmers = new Hashtable<String,ArrayList<String[]>>();
+    private Hashtable<String,ArrayList<String[]>> underKmers = new Hashtable<String,ArrayList<String[]>>();
+    private PrintWriter[] comparisonFiles = new PrintWriter[3];
+    private PrintWriter[] mapSummaryFiles = new PrintWriter[3];
+    private ArrayList<ReferenceSequence> sortedRefs = null;
+
     public SampleComparer(NanoOKOptions o) {
         options = o;
     }
-    
-    private void readSample(String sample, String name) {
-        try {
-            FileInputStream fis = new FileInputStream(sample + File.separator + "analysis" + File.separator + "OverallStats.ser");
-            ObjectInputStream ois = new ObjectInputStream(fis);
-            OverallStats os = (OverallStats)ois.readObject();
-            sampleNames.add(name);
-            sampleStats.add(os);
-            ois.close();
-        } catch (Exception e) {
-            if (e instanceof InvalidClassException) {
-                System.out.println("The saved data is incompatible with this version of NanoOK. You must re-run nanook analyse on all your samples before running compare.");
-            } else {
-                System.out.println("Exception trying to read object:");
-                e.printStackTrace();
-            }
-            System.exit(1);            
-        }
-    }
-    
-    public void loadSamples() {    
+
+    /**
+     * Read the list of samples to compare.
+     */
+    public void loadSamples() {
         try
         {
             BufferedReader br = new BufferedReader(new FileReader(options.getSampleList()));
             String line;
-            
+
             do {
                 line = br.readLine();
                 if (line != null) {
@@ -65,90 +62,221 @@ public class SampleComparer {
                             System.out.println("Error: invalid format for sample list file. This file should be two fields, tab separated.");
                             System.exit(1);
                         } else {
-                            readSample(fields[0], fields[1]);
+                            sampleDirs.add(fields[0]);
+                            sampleNames.add(fields[1]);
                         }
                     }
                 }
-            } while (line != null);            
+            } while (line != null);
             br.close();
         } catch (Exception e) {
             System.out.println("parseFile Exception:");
             e.printStackTrace();
             System.exit(1);
-        }    
+        }
+
+        if (sampleDirs.size() < 1) {
+            System.out.println("Error: no samples found in sample list.");
+            System.exit(1);
+        }
     }
-    
-    public void compareSamples() {
-        try {
-            for (int type = 0; type<3; type++) {    
-                if (options.isProcessingReadType(type)) {
-                    String filename = options.getComparisonDir() + File.separator + NanoOKOptions.getTypeFromInt(type) + "_comparison.txt";
-                    PrintWriter pw = new PrintWriter(new FileWriter(filename, false));
-                    
-                    pw.println("Name\tNumReads\tTotalBases\tMeanLen\tLongest\tShortest\tN50\tN50Count\tN90\tN90Count");
-                    
-                    for (int i=0; i<sampleStats.size(); i++) {
-                        String name = sampleNames.get(i);
-                        OverallStats overallStats = sampleStats.get(i);
-                        ReadSetStats r = overallStats.getStatsByType(type);           
-
-                        pw.printf("%s\t%d\t%d\t%.2f\t%d\t%d\t%d\t%d\t%d\t%d",
-                                  name, r.getNumReads(), r.getTotalBases(), r.getMeanLength(), r.getLongest(), r.getShortest(), r.getN50(), r.getN50Count(), r.getN90(), r.getN90Count());
-                        pw.println("");
-                    }
-                    
-                    pw.close();
-                    
-                    filename = options.getComparisonDir() + File.separator + NanoOKOptions.getTypeFromInt(type) + "_map_summary.txt";
-                    pw = new PrintWriter(new FileWriter(filename, false));
-                    References refs = sampleStats.get(0).getStatsByType(type).getOptions().getReferences();
-                    ArrayList<ReferenceSequence> sortedRefs = refs.getSortedReferences();
-                    pw.print("Sample");
+
+    /**
+     * Open comparison files and write headers.
+     * @param append true to append to existing files
+     */
+    private void openComparisonFiles(boolean append) throws IOException {
+        for (int type = 0; type<3; type++) {
+            if (options.isProcessingReadType(type)) {
+                comparisonFiles[type] = new PrintWriter(new FileWriter(getComparisonFilename(type), append));
+                mapSummaryFiles[type] = new PrintWriter(new FileWriter(getMapSummaryFilename(type), append));
+                
+                if (!append) {
+                    comparisonFiles[type].println("Name\tNumReads\tTotalBases\tMeanLen\tLongest\tShortest\tN50\tN50Count\tN90\tN90Count");
+                    mapSummaryFiles[type].print("Sample");
                     for (int i=0; i<sortedRefs.size(); i++) {
                         ReferenceSequence rs = sortedRefs.get(i);
-                        pw.print("\t" + rs.getName());
+                        mapSummaryFiles[type].print("\t" + rs.getName());
                     }
-                    pw.println("\tUnaligned");
-                    for (int i=0; i<sampleStats.size(); i++) {
-                        String name = sampleNames.get(i);
-                        OverallStats overallStats = sampleStats.get(i);
-                        pw.print(name);
-                        for (int j=0; j<sortedRefs.size(); j++) {
-                            ReferenceSequence rs = overallStats.getStatsByType(type).getOptions().getReferences().getReferenceById(sortedRefs.get(j).getId());
-                            double value = 0.0;
-                            
-                            if (rs.getStatsByType(type).getNumberOfReadsWithAlignments() > 0) {
-                                value = 100.0 * (double)rs.getStatsByType(type).getNumberOfReadsWithAlignments() / (double)overallStats.getStatsByType(type).getNumberOfReads();
-                            }
-                            
-                            pw.printf("\t%.4f", value);
-                        }
-                        
-                        double value = 0;                        
-                        if (overallStats.getStatsByType(type).getNumberOfReadsWithoutAlignments() > 0) {
-                            value = 100.0 * (double)overallStats.getStatsByType(type).getNumberOfReadsWithoutAlignments() / (double)overallStats.getStatsByType(type).getNumberOfReads();
+                    mapSummaryFiles[type].println("\tUnaligned");
+                }
+            }
+        }
+    }
+
+    private String getComparisonFilename(int type) {
+        return options.getComparisonDir() + File.separator + NanoOKOptions.getTypeFromInt(type) + "_comparison.txt";
+    }
+
+    private String getMapSummaryFilename(int type) {
+        return options.getComparisonDir() + File.separator + NanoOKOptions.getTypeFromInt(type) + "_map_summary.txt";
+    }
+
+    /**
+     * Check comparison files exist, so they can be appended to.
+     * @return true if all exist
+     */
+    private boolean comparisonFilesExist() {
+        for (int type = 0; type<3; type++) {
+            if (options.isProcessingReadType(type)) {
+                if (!new File(getComparisonFilename(type)).exists() || !new File(getMapSummaryFilename(type)).exists()) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Close comparison files.
+     */
+    private void closeComparisonFiles() {
+        for (int type = 0; type<3; type++) {
+            if (comparisonFiles[type] != null) {
+                comparisonFiles[type].close();
+                mapSummaryFiles[type].close();
+            }
+        }
+    }
+
+    /**
+     * Wait for a sample to load.
+     * @param f Future of loader
+     * @param loader loader
+     * @return sample's comparison lines
+     */
+    private ComparisonStore.Entry waitForSample(Future<?> f, SampleLoaderRunnable loader) throws InterruptedException {
+        try {
+            f.get();
+        } catch (ExecutionException e) {
+            System.out.println("Exception trying to load sample:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        return loader.getEntry();
+    }
+
+    /**
+     * Stream through samples, writing comparison files. The reference list
+     * is taken from the first sample. Samples in the comparison store are not
+     * reloaded and, if the only change to the sample list is new samples at
+     * the end, their lines are appended to the existing files.
+     */
+    public void compareSamples() throws InterruptedException {
+        int nThreads = options.getNumberOfThreads();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(nThreads, nThreads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        ArrayDeque<Future<?>> pending = new ArrayDeque<Future<?>>();
+        ArrayDeque<SampleLoaderRunnable> loaders = new ArrayDeque<SampleLoaderRunnable>();
+        ComparisonStore store = new ComparisonStore(options);
+        boolean useStore = store.read() && store.isFirstSample(sampleDirs.get(0), sampleNames.get(0));
+        int appendFrom = 0;
+        int nStored = 0;
+        int next = 0;
+        int done = 0;
+
+        if (useStore) {
+            options.setReferences(store.getReferences(options));
+            if (comparisonFilesExist()) {
+                appendFrom = store.getAppendablePrefix(sampleDirs, sampleNames);
+            }
+        } else {
+            try {
+                options.setReferences(SampleLoaderRunnable.openSummary(sampleDirs.get(0)).getReferences(options));
+            } catch (IOException e) {
+                System.out.println("Exception trying to read summary:");
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+        
+        sortedRefs = options.getReferences().getSortedReferences();
+        for (int j=0; j<sortedRefs.size(); j++) {
+            overKmers.put(sortedRefs.get(j).getId(), new ArrayList<String[]>());
+            underKmers.put(sortedRefs.get(j).getId(), new ArrayList<String[]>());
+        }
+
+        try {
+            openComparisonFiles(appendFrom > 0);
+            store.open(sortedRefs);
+
+            while (done < sampleDirs.size()) {
+                // Keep a bounded number of samples loading ahead
+                while ((next < sampleDirs.size()) && (pending.size() < (2 * nThreads))) {
+                    ComparisonStore.Entry stored = useStore ? store.getEntry(sampleDirs.get(next), sampleNames.get(next)) : null;
+                    SampleLoaderRunnable loader;
+                    if (stored != null) {
+                        loader = new SampleLoaderRunnable(stored);
+                        nStored++;
+                    } else {
+                        loader = new SampleLoaderRunnable(options, sampleDirs.get(next), sampleNames.get(next), sortedRefs);
+                    }
+                    loaders.add(loader);
+                    pending.add(executor.submit(loader));
+                    next++;
+                }
+
+                ComparisonStore.Entry entry = waitForSample(pending.poll(), loaders.poll());
+
+                if (done >= appendFrom) {
+                    for (int type = 0; type<3; type++) {
+                        if (options.isProcessingReadType(type)) {
+                            comparisonFiles[type].println(entry.getComparisonLine(type));
+                            mapSummaryFiles[type].println(entry.getMapSummaryLine(type));
                         }
-                        pw.printf("\t%.4f", value);
-                        pw.println("");
                     }
-                    pw.close();
-                }                
-            }                    
+                }
+                
+                for (int j=0; j<sortedRefs.size(); j++) {
+                    overKmers.get(sortedRefs.get(j).getId()).add(entry.getOverRepresentedKmers(j));
+                    underKmers.get(sortedRefs.get(j).getId()).add(entry.getUnderRepresentedKmers(j));
+                }
+
+                store.write(entry);
+                done++;
+            }
+            
+            store.close();
         } catch (IOException e) {
-            System.out.println("AlignmentsTableFile exception");
+            System.out.println("SampleComparer exception");
             e.printStackTrace();
+            System.exit(1);
+        }
+
+        executor.shutdown();
+        closeComparisonFiles();
+        
+        if (nStored > 0) {
+            System.out.println("Used stored comparison for " + nStored + " of " + sampleDirs.size() + " samples");
         }
     }
-    
+
     public int getNumberOfSamples() {
-        return sampleStats.size();
+        return sampleNames.size();
     }
-    
-    public OverallStats getSample(int i) {
-        return sampleStats.get(i);
-    }
-    
+
     public String getSampleName(int i) {
         return sampleNames.get(i);
     }
+
+    /**
+     * Get over-represented kmers of a sample, for the read type being reported.
+     * @param id reference ID
+     * @param i sample index
+     * @return array of kmers, most over-represented first
+     */
+    public String[] getOverRepresentedKmers(String id, int i) {
+        return overKmers.get(id).get(i);
+    }
+
+    /**
+     * Get under-represented kmers of a sample, for the read type being reported.
+     * @param id reference ID
+     * @param i sample index
+     * @return array of kmers, most under-represented first
+     */
+    public String[] getUnderRepresentedKmers(String id, int i) {
+        return underKmers.get(id).get(i);
+    }
 }
@@ -0,0 +1,146 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett
+ *
+ * Copyright 2015 The Genome Analysis Centre (TGAC)
+ */
+
+package nanook;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Enable multi-threading of sample loading for compare. Each sample's summary
+ * is opened, only the sections needed for the chosen read types are read, and
+ * the sample's comparison lines are made.
+ *
+ * @author Richard Leggett
+ */
+public class SampleLoaderRunnable implements Runnable {
+    private NanoOKOptions options;
+    private String dir;
+    private String name;
+    private ArrayList<ReferenceSequence> sortedRefs;
+    private ComparisonStore.Entry entry = null;
+
+    public SampleLoaderRunnable(NanoOKOptions o, String d, String n, ArrayList<ReferenceSequence> r) {
+        options = o;
+        dir = d;
+        name = n;
+        sortedRefs = r;
+    }
+
+    /**
+     * Constructor for a sample which is already in the comparison store.
+     * @param e stored Entry
+     */
+    public SampleLoaderRunnable(ComparisonStore.Entry e) {
+        entry = e;
+    }
+
+    /**
+     * Open a sample's summary file.
+     * @param dir sample directory
+     * @return SampleSummaryFile object
+     */
+    public static SampleSummaryFile openSummary(String dir) {
+        String filename = dir + File.separator + "analysis" + File.separator + SampleSummaryFile.FILENAME;
+        SampleSummaryFile ssf = null;
+
+        if (!new File(filename).exists()) {
+            System.out.println("Can't find " + filename + ". You must re-run nanook analyse on all your samples before running compare.");
+            System.exit(1);
+        }
+
+        try {
+            ssf = new SampleSummaryFile(filename);
+        } catch (IOException e) {
+            System.out.println("Exception trying to read summary:");
+            System.out.println(e.getMessage());
+            System.out.println("You must re-run nanook analyse on all your samples before running compare.");
+            System.exit(1);
+        }
+
+        return ssf;
+    }
+
+    /**
+     * Make comparison lines for one read type.
+     * @param sample sample summary
+     * @param type read type
+     * @param e Entry to store lines in
+     */
+    private void makeLines(SampleSummaryFile sample, int type, ComparisonStore.Entry e) throws IOException {
+        ReadSetSummary r = sample.getReadSetSummary(type);
+        String comparisonLine = String.format("%s\t%d\t%d\t%.2f\t%d\t%d\t%d\t%d\t%d\t%d",
+                                              name, r.getNumReads(), r.getTotalBases(), r.getMeanLength(), r.getLongest(), r.getShortest(), r.getN50(), r.getN50Count(), r.getN90(), r.getN90Count());
+        StringBuilder mapSummaryLine = new StringBuilder(name);
+
+        for (int j=0; j<sortedRefs.size(); j++) {
+            ReferenceSummary rs = sample.getReferenceSummary(type, sortedRefs.get(j).getId());
+            double value = 0.0;
+
+            if ((rs != null) && (rs.getNumberOfReadsWithAlignments() > 0)) {
+                value = 100.0 * (double)rs.getNumberOfReadsWithAlignments() / (double)r.getNumberOfReads();
+            }
+
+            mapSummaryLine.append(String.format("\t%.4f", value));
+        }
+
+        double value = 0;
+        if (r.getNumberOfReadsWithoutAlignments() > 0) {
+            value = 100.0 * (double)r.getNumberOfReadsWithoutAlignments() / (double)r.getNumberOfReads();
+        }
+        mapSummaryLine.append(String.format("\t%.4f", value));
+
+        e.setLines(type, comparisonLine, mapSummaryLine.toString());
+    }
+
+    public void run() {
+        if (entry != null) {
+            return;
+        }
+
+        long lastModified = ComparisonStore.getSummaryModified(dir);
+        SampleSummaryFile sample = openSummary(dir);
+        ComparisonStore.Entry e = new ComparisonStore.Entry(dir, name, lastModified, sortedRefs.size());
+
+        try {
+            for (int type=0; type<3; type++) {
+                if (options.isProcessingReadType(type)) {
+                    makeLines(sample, type, e);
+                }
+            }
+
+            for (int j=0; j<sortedRefs.size(); j++) {
+                ReferenceSummary rs = sample.getReferenceSummary(options.getSpecifiedType(), sortedRefs.get(j).getId());
+                String[] over = new String[rs == null ? 0 : rs.getNumberOfKmers()];
+                String[] under = new String[over.length];
+
+                for (int k=0; k<over.length; k++) {
+                    over[k] = rs.getOverRepresentedKmer(k);
+                    under[k] = rs.getUnderRepresentedKmer(k);
+                }
+
+                e.setKmers(j, over, under);
+            }
+            
+            entry = e;
+        } catch (IOException ex) {
+            System.out.println("Exception trying to read summary:");
+            System.out.println(ex.getMessage());
+            System.out.println("You must re-run nanook analyse on all your samples before running compare.");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Get sample's comparison lines. Only valid once run has completed.
+     * @return ComparisonStore.Entry object
+     */
+    public ComparisonStore.Entry getEntry() {
+        return entry;
+    }
+}
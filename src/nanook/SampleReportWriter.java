@@ -347,7 +347,7 @@ public class SampleReportWriter {
             graphSize = "height=8cm";
         }
 
-        pw.println("\\subsection*{" + id + " 5-mer analysis}");
+        pw.println("\\subsection*{" + id + " " + refSeq.getKmerTable().getKmerSize() + "-mer analysis}");
 
         String[] overRepLines = new String[10];
         String[] underRepLines = new String[10];
@@ -371,11 +371,11 @@ public class SampleReportWriter {
             underRepLines[i] += " \\\\";
         }        
         
-        pw.println("\\subsection*{Under-represented 5-mers}");
+        pw.println("\\subsection*{Under-represented " + refSeq.getKmerTable().getKmerSize() + "-mers}");
         pw.println("\\vspace{-3mm}");
         writeKmerTable(underRepLines);
         pw.println("\\vspace{-3mm}");
-        pw.println("\\subsection*{Over-represented 5-mers}");
+        pw.println("\\subsection*{Over-represented " + refSeq.getKmerTable().getKmerSize() + "-mers}");
         pw.println("\\vspace{-3mm}");
         writeKmerTable(overRepLines);
         pw.println("\\vspace{-8mm}");
@@ -548,7 +548,7 @@ public class SampleReportWriter {
     public void writeMotifSection() {        
         pw.println("\\subsection*{Kmer motifs before errors}");
         
-        for (int k=3; k<=5; k++) {   
+        for (int k=MotifStatistics.MIN_MOTIF_SIZE; k<=MotifStatistics.MAX_MOTIF_SIZE; k++) {   
             int colCount = 1;
 
             pw.println("\\subsection*{"+k+"-mer error motif analysis}");
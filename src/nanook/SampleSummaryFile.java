@@ -0,0 +1,235 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett
+ *
+ * Copyright 2015 The Genome Analysis Centre (TGAC)
+ */
+
+package nanook;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+
+/**
+ * Binary summary of an analysed sample, holding only what compare needs.
+ *
+ * The file is a header (magic, version, number of sections) followed by
+ * sections, each an ID and a byte length followed by its data. Opening a file
+ * only reads the section headers; each section is read when first asked for.
+ * Sections with unknown IDs are skipped, so new sections can be added without
+ * breaking older readers. The version only changes if existing sections do.
+ *
+ * @author Richard Leggett
+ */
+public class SampleSummaryFile {
+    public final static String FILENAME = "sample_summary.bin";
+    public final static int MAGIC = 0x4E4B5353;
+    public final static int VERSION = 1;
+    private final static int SECTION_READ_SETS = 1;
+    private final static int SECTION_REFERENCES = 2;
+    private final static int SECTION_REFERENCE_STATS = 16;
+    private String filename;
+    private Hashtable<Integer,long[]> sections = new Hashtable<Integer,long[]>();
+    private ReadSetSummary[] readSets = null;
+    private ArrayList<String[]> referenceList = null;
+    private int kmerSize = 0;
+    private ArrayList<Hashtable<String,ReferenceSummary>> referenceStats = new ArrayList<Hashtable<String,ReferenceSummary>>(Arrays.asList(null, null, null));
+
+    /**
+     * Open a summary file and read the section headers.
+     * @param f filename
+     */
+    public SampleSummaryFile(String f) throws IOException {
+        filename = f;
+
+        RandomAccessFile raf = new RandomAccessFile(filename, "r");
+        try {
+            if (raf.readInt() != MAGIC) {
+                throw new IOException(filename + " is not a NanoOK summary file");
+            }
+
+            int version = raf.readInt();
+            if (version != VERSION) {
+                throw new IOException(filename + " is summary version " + version + ", but this version of NanoOK reads version " + VERSION);
+            }
+
+            int nSections = raf.readInt();
+            for (int i=0; i<nSections; i++) {
+                int id = raf.readInt();
+                int length = raf.readInt();
+                sections.put(id, new long[] {raf.getFilePointer(), length});
+                raf.seek(raf.getFilePointer() + length);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Add a section to the file being written.
+     * @param dos file stream
+     * @param id section ID
+     * @param section section data
+     */
+    private static void writeSection(DataOutputStream dos, int id, ByteArrayOutputStream section) throws IOException {
+        dos.writeInt(id);
+        dos.writeInt(section.size());
+        section.writeTo(dos);
+    }
+
+    /**
+     * Write a summary file for a sample.
+     * @param f filename
+     * @param options NanoOKOptions object
+     * @param overallStats stats to summarise
+     */
+    public static void write(String f, NanoOKOptions options, OverallStats overallStats) throws IOException {
+        ArrayList<ReferenceSequence> refs = options.getReferences().getSortedReferences();
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        ByteArrayOutputStream section;
+        DataOutputStream sos;
+
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(5);
+
+        section = new ByteArrayOutputStream();
+        sos = new DataOutputStream(section);
+        for (int type=0; type<3; type++) {
+            ReadSetSummary.write(sos, overallStats.getStatsByType(type));
+        }
+        sos.flush();
+        writeSection(dos, SECTION_READ_SETS, section);
+
+        section = new ByteArrayOutputStream();
+        sos = new DataOutputStream(section);
+        sos.writeInt(options.getKmerSize());
+        sos.writeInt(refs.size());
+        for (int i=0; i<refs.size(); i++) {
+            sos.writeUTF(refs.get(i).getId());
+            sos.writeUTF(refs.get(i).getName());
+            sos.writeInt(refs.get(i).getSize());
+        }
+        sos.flush();
+        writeSection(dos, SECTION_REFERENCES, section);
+
+        for (int type=0; type<3; type++) {
+            section = new ByteArrayOutputStream();
+            sos = new DataOutputStream(section);
+            sos.writeInt(refs.size());
+            for (int i=0; i<refs.size(); i++) {
+                ReferenceSummary.write(sos, refs.get(i).getId(), refs.get(i).getStatsByType(type));
+            }
+            sos.flush();
+            writeSection(dos, SECTION_REFERENCE_STATS + type, section);
+        }
+
+        dos.close();
+    }
+
+    /**
+     * Read a section.
+     * @param id section ID
+     * @return stream of section data
+     */
+    private DataInputStream readSection(int id) throws IOException {
+        long[] s = sections.get(id);
+
+        if (s == null) {
+            throw new IOException(filename + " is missing section " + id);
+        }
+
+        byte[] data = new byte[(int)s[1]];
+        RandomAccessFile raf = new RandomAccessFile(filename, "r");
+        try {
+            raf.seek(s[0]);
+            raf.readFully(data);
+        } finally {
+            raf.close();
+        }
+
+        return new DataInputStream(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Get summary for a read set.
+     * @param type read type
+     * @return ReadSetSummary object
+     */
+    public synchronized ReadSetSummary getReadSetSummary(int type) throws IOException {
+        if (readSets == null) {
+            DataInputStream dis = readSection(SECTION_READ_SETS);
+            readSets = new ReadSetSummary[3];
+            for (int t=0; t<3; t++) {
+                readSets[t] = new ReadSetSummary(dis);
+            }
+        }
+
+        return readSets[type];
+    }
+
+    /**
+     * Read reference list section.
+     */
+    private synchronized void readReferenceList() throws IOException {
+        if (referenceList == null) {
+            DataInputStream dis = readSection(SECTION_REFERENCES);
+            kmerSize = dis.readInt();
+            int n = dis.readInt();
+            referenceList = new ArrayList<String[]>();
+            for (int i=0; i<n; i++) {
+                String id = dis.readUTF();
+                String name = dis.readUTF();
+                int size = dis.readInt();
+                referenceList.add(new String[] {id, name, Integer.toString(size)});
+            }
+        }
+    }
+
+    /**
+     * Build a References object (without stats) from the reference list.
+     * @param o NanoOKOptions object
+     * @return References object
+     */
+    public References getReferences(NanoOKOptions o) throws IOException {
+        References references = new References(o);
+
+        readReferenceList();
+        for (int i=0; i<referenceList.size(); i++) {
+            String[] r = referenceList.get(i);
+            references.addReference(new ReferenceSequence(r[0], Integer.parseInt(r[2]), r[1], kmerSize, false));
+        }
+
+        return references;
+    }
+
+    /**
+     * Get summary for a reference.
+     * @param type read type
+     * @param id reference ID
+     * @return ReferenceSummary object, or null if reference not in sample
+     */
+    public synchronized ReferenceSummary getReferenceSummary(int type, String id) throws IOException {
+        if (referenceStats.get(type) == null) {
+            DataInputStream dis = readSection(SECTION_REFERENCE_STATS + type);
+            Hashtable<String,ReferenceSummary> h = new Hashtable<String,ReferenceSummary>();
+            int n = dis.readInt();
+            for (int i=0; i<n; i++) {
+                ReferenceSummary rs = new ReferenceSummary(dis);
+                h.put(rs.getId(), rs);
+            }
+            referenceStats.set(type, h);
+        }
+
+        return referenceStats.get(type).get(id);
+    }
+}
@@ -4,86 +4,178 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
- * Represent reference coverage
- * 
+ * Represent reference coverage. Each alignment is recorded in constant time:
+ * bases in the partial bins at either end are added directly and the run of
+ * full bins in between goes into a difference array. Optionally, a per-base
+ * difference array is also kept (off-heap for large sequences). Coverage is
+ * recovered by a prefix sum when it is written.
+ *
  * @author Richard Leggett
  */
 public class SequenceCoverage implements Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
-    private int[] coverage;
+    private static final int OFF_HEAP_THRESHOLD = 50000000;
+    private static final int OFF_HEAP_PAGE_BITS = 28;
+    private static final int OFF_HEAP_PAGE_SIZE = 1 << OFF_HEAP_PAGE_BITS;
+    private static final VarHandle INT_BUFFER = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private AtomicLongArray binBases;
+    private AtomicIntegerArray fullBinDiff;
+    private transient AtomicIntegerArray baseDiff = null;
+    private transient ByteBuffer[] offHeapBaseDiff = null;
     private int numBins = 1000;
     private int genomeSize = 0;
     private int binSize = 1;
-    private boolean binEarly = false;
-    
-    public SequenceCoverage(int s) {
+    private boolean perBase = false;
+
+    public SequenceCoverage(int s, boolean p) {
         genomeSize = s;
+        perBase = p;
 
         // Approx hundred bins for coverage
         float b = genomeSize / 100;
-        
+
         // Make a multiple of 10, 100 or 500...
         if (genomeSize < 50000) {
-            binSize = 10 * (1 + Math.round(b / 10));   
+            binSize = 10 * (1 + Math.round(b / 10));
         } else if (genomeSize < 500000) {
-            binSize = 100 * (1 + Math.round(b / 100));   
+            binSize = 100 * (1 + Math.round(b / 100));
         } else {
-            binSize = 500 * (1 + Math.round(b / 500));   
-        }        
+            binSize = 500 * (1 + Math.round(b / 500));
+        }
 
         numBins = (int) Math.ceil(genomeSize / (double)binSize);
-        
-        
-        // Bin early for large genomes
-        if (genomeSize < 10000000) {
-            binEarly = false;
-        } else {
-            binEarly = true;
+        binBases = new AtomicLongArray(numBins);
+        fullBinDiff = new AtomicIntegerArray(numBins + 1);
+
+        if (perBase) {
+            if (genomeSize < OFF_HEAP_THRESHOLD) {
+                baseDiff = new AtomicIntegerArray(genomeSize + 1);
+            } else {
+                long n = (long)genomeSize + 1;
+                int nPages = (int)((n + OFF_HEAP_PAGE_SIZE - 1) >> OFF_HEAP_PAGE_BITS);
+                offHeapBaseDiff = new ByteBuffer[nPages];
+                for (int i=0; i<nPages; i++) {
+                    long pageSize = Math.min(OFF_HEAP_PAGE_SIZE, n - ((long)i << OFF_HEAP_PAGE_BITS));
+                    offHeapBaseDiff[i] = ByteBuffer.allocateDirect((int)pageSize * 4).order(ByteOrder.nativeOrder());
+                }
+            }
         }
-        
-        // Force this for now
-        binEarly = true;
-        
-        if (binEarly) {
-            coverage = new int[numBins];
+    }
+
+    /**
+     * Add to a position in the per-base difference array.
+     * @param pos position
+     * @param delta amount to add
+     */
+    private void addBaseDiff(int pos, int delta) {
+        if (baseDiff != null) {
+            baseDiff.addAndGet(pos, delta);
+        } else if (offHeapBaseDiff != null) {
+            INT_BUFFER.getAndAdd(offHeapBaseDiff[pos >>> OFF_HEAP_PAGE_BITS], (pos & (OFF_HEAP_PAGE_SIZE - 1)) * 4, delta);
+        }
+    }
+
+    /**
+     * Get value from the per-base difference array.
+     * @param pos position
+     * @return value
+     */
+    private int getBaseDiff(int pos) {
+        if (baseDiff != null) {
+            return baseDiff.get(pos);
         } else {
-            coverage = new int[genomeSize];
+            return (int)INT_BUFFER.getVolatile(offHeapBaseDiff[pos >>> OFF_HEAP_PAGE_BITS], (pos & (OFF_HEAP_PAGE_SIZE - 1)) * 4);
         }
     }
-    
+
+    /**
+     * Check if per-base coverage is available.
+     * @return true if per-base coverage is being stored
+     */
+    public boolean hasPerBaseCoverage() {
+        return (baseDiff != null) || (offHeapBaseDiff != null);
+    }
+
     /**
      * Increment coverage between two points.
      * @param start start position
      * @param size size
      */
-    public synchronized void addCoverage(int start, int size) {
-        for (int i=start; i<(start+size); i++) {
-            if (binEarly) {
-                coverage[i/binSize]++;
-            } else {
-                coverage[i]++;
+    public void addCoverage(int start, int size) {
+        int end = (int)Math.min((long)start + size, (long)genomeSize);
+
+        if (start < 0) {
+            start = 0;
+        }
+
+        if (end <= start) {
+            return;
+        }
+
+        int startBin = start / binSize;
+        int endBin = (end - 1) / binSize;
+
+        if (startBin == endBin) {
+            binBases.addAndGet(startBin, end - start);
+        } else {
+            binBases.addAndGet(startBin, ((startBin + 1) * binSize) - start);
+            binBases.addAndGet(endBin, end - (endBin * binSize));
+            if (endBin > (startBin + 1)) {
+                fullBinDiff.incrementAndGet(startBin + 1);
+                fullBinDiff.decrementAndGet(endBin);
             }
         }
+
+        if (hasPerBaseCoverage()) {
+            addBaseDiff(start, 1);
+            addBaseDiff(end, -1);
+        }
     }
-    
+
     /**
-     * Write coverage file for later graph plotting.
+     * Add binned coverage from another object for the same sequence. Per-base
+     * coverage is not stored with the stats, so is not merged.
+     * @param c SequenceCoverage to merge in
+     */
+    public void merge(SequenceCoverage c) {
+        for (int i=0; i<numBins; i++) {
+            binBases.addAndGet(i, c.binBases.get(i));
+        }
+
+        for (int i=0; i<=numBins; i++) {
+            fullBinDiff.addAndGet(i, c.fullBinDiff.get(i));
+        }
+    }
+
+    /**
+     * Write coverage file for later graph plotting, binning per-base coverage.
      * @param filename output filename
      * @param binSize bin size
      */
     private synchronized void binAndWriteCoverageData(String filename, int pbinSize) {
         try {
-            PrintWriter pw = new PrintWriter(new FileWriter(filename));            
-            for (int i=0; i<(genomeSize-pbinSize); i+=pbinSize) {
-                int count = 0;
-                for (int j=0; j<pbinSize; j++) {
-                    count += coverage[i+j];
+            PrintWriter pw = new PrintWriter(new FileWriter(filename));
+            long depth = 0;
+            long count = 0;
+            for (int i=0; i<genomeSize; i++) {
+                depth += getBaseDiff(i);
+                count += depth;
+                if (((i + 1) % pbinSize) == 0) {
+                    if ((i + 1) < genomeSize) {
+                        pw.printf("%d\t%.2f", i + 1 - pbinSize, ((double)count / (double)pbinSize));
+                        pw.println("");
+                    }
+                    count = 0;
                 }
-                pw.printf("%d\t%.2f", i, ((double)count / (double)pbinSize));
-                pw.println("");
-            }            
+            }
             pw.close();
         } catch (IOException e) {
             System.out.println("writeCoverageData exception:");
@@ -91,7 +183,7 @@ public class SequenceCoverage implements Serializable {
             System.exit(1);
         }
     }
-        
+
     /**
      * Write coverage file for later graph plotting.
      * @param filename output filename
@@ -99,15 +191,18 @@ public class SequenceCoverage implements Serializable {
      */
     private synchronized void writeBinnedCoverageData(String filename) {
         try {
-            PrintWriter pw = new PrintWriter(new FileWriter(filename));            
-            for (int i=0; i<numBins-1; i++) {
-                double c = (double)coverage[i] / (double)binSize;
+            PrintWriter pw = new PrintWriter(new FileWriter(filename));
+            long fullBins = 0;
+            for (int i=0; i<numBins; i++) {
+                fullBins += fullBinDiff.get(i);
+                long bases = binBases.get(i) + (fullBins * binSize);
+                double c = (double)bases / (double)binSize;
                 if (i == (numBins - 1)) {
-                    c = (double)coverage[i] / (double)(genomeSize - (i*binSize));
+                    c = (double)bases / (double)(genomeSize - (i*binSize));
                 }
                 pw.printf("%d\t%.2f", i*binSize, c);
                 pw.println("");
-            }            
+            }
             pw.close();
         } catch (IOException e) {
             System.out.println("writeCoverageData exception:");
@@ -115,18 +210,51 @@ public class SequenceCoverage implements Serializable {
             System.exit(1);
         }
     }
-    
+
     /**
      * Write coverage file for later graph plotting.
      * @param filename output filename
      * @param binSize bin size
      */
-    public synchronized void writeCoverageData(String filename, int binSize) {
-        if (binEarly) {
-            writeBinnedCoverageData(filename);
+    public synchronized void writeCoverageData(String filename, int pbinSize) {
+        if ((pbinSize != binSize) && hasPerBaseCoverage()) {
+            binAndWriteCoverageData(filename, pbinSize);
         } else {
-            binAndWriteCoverageData(filename, binSize);
+            writeBinnedCoverageData(filename);
         }
     }
-    
+
+    /**
+     * Write per-base coverage as runs of equal depth (start, end, depth),
+     * omitting uncovered regions.
+     * @param filename output filename
+     */
+    public synchronized void writePerBaseCoverageData(String filename) {
+        if (!hasPerBaseCoverage()) {
+            return;
+        }
+
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(filename));
+            int depth = 0;
+            int runStart = 0;
+            pw.println("Start\tEnd\tDepth");
+            for (int i=0; i<=genomeSize; i++) {
+                int newDepth = depth + getBaseDiff(i);
+                if ((newDepth != depth) || (i == genomeSize)) {
+                    if ((depth > 0) && (i > runStart)) {
+                        pw.println(runStart + "\t" + i + "\t" + depth);
+                    }
+                    depth = newDepth;
+                    runStart = i;
+                }
+            }
+            pw.close();
+        } catch (IOException e) {
+            System.out.println("writePerBaseCoverageData exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
 }
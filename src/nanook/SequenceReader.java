@@ -25,6 +25,7 @@ public class SequenceReader {
     private ArrayList<Integer> seqLengths = new ArrayList();
     private ArrayList<String> sequence = new ArrayList();
     private ArrayList<Double> gcPc = new ArrayList();
+    private ArrayList<Long> startTimes = new ArrayList();
     private int nSeqs = 0;
     private boolean cacheSequence = false;
     private String currentFilename;
@@ -71,6 +72,7 @@ public class SequenceReader {
                                 seqIDs.add(id);
                                 seqLengths.add(seq.length());
                                 gcPc.add(new Double(100.0 * (double)countGC(seq) / (double)seq.length()));
+                                startTimes.add(ReadTimeStats.parseStartTime(parts));
                                 if (cacheSequence) {
                                     sequence.add(seq);
                                 }
@@ -123,6 +125,7 @@ public class SequenceReader {
             String line;
             String id = null;
             String name = null;
+            long startTime = -1;
             int contigLength = 0;
             int readsInThisFile = 0;
             //String seq = "";
@@ -146,6 +149,7 @@ public class SequenceReader {
                             seqIDs.add(id);
                             seqLengths.add(contigLength);
                             gcPc.add(new Double(gcpc));
+                            startTimes.add(startTime);
                         }
 
                         if (pw != null) {
@@ -164,6 +168,7 @@ public class SequenceReader {
                         String[] parts = line.substring(1).split("(\\s+)");
                         id = parts[0];
                         name = makeName(line, id);
+                        startTime = ReadTimeStats.parseStartTime(parts);
                     }                   
                     
                     contigLength = 0;
@@ -208,6 +213,15 @@ public class SequenceReader {
         return gcPc.get(i);
     }
     
+    /**
+     * Get start time of a read, from start_time= in its header.
+     * @param i sequence index
+     * @return start time in seconds, or -1 if not known
+     */
+    public long getStartTime(int i) {
+        return startTimes.get(i);
+    }
+    
     public String getSubSequence(String id, int start, int end) {
         int index = -1;
         String seq = "";
@@ -306,11 +320,7 @@ public class SequenceReader {
     public void storeKmers(int index, KmerTable t) {
         String seq = sequence.get(index);
         if (seq != null) {
-            int k = t.getKmerSize();
-
-            for (int o=0; o<seq.length() - k; o++) {
-                t.countKmer(seq.substring(o, o+5));
-            }        
+            t.countKmers(seq);
         } else {
             System.out.println("Need to handle the non-cached case");
         }
@@ -0,0 +1,252 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett
+ *
+ * Copyright 2015 The Genome Analysis Centre (TGAC)
+ */
+
+package nanook;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Combines the partial results written by sharded runs of analyse into a
+ * single set of stats and per-read files in the sample's analysis directory.
+ *
+ * @author Richard Leggett
+ */
+public class ShardMerger {
+    private NanoOKOptions options;
+    private OverallStats overallStats;
+    private ArrayList<String> shardDirs = new ArrayList<String>();
+
+    /**
+     * Constructor
+     * @param o NanoOKOptions object
+     * @param s OverallStats to merge shards into
+     */
+    public ShardMerger(NanoOKOptions o, OverallStats s) {
+        options = o;
+        overallStats = s;
+    }
+
+    /**
+     * Find shard directories. These must be shard_1_of_n to shard_n_of_n for
+     * a single n, all completed and analysed against the same references as
+     * this merge, otherwise the merge would be partial, count reads twice or
+     * add up stats of different sequences, so it's an error. Each shard is
+     * loaded to check its references before anything is written.
+     * @return number of shards found
+     */
+    public int findShards() {
+        File[] listOfFiles = new File(options.getShardsDir()).listFiles();
+        Pattern shardPattern = Pattern.compile("^shard_(\\d+)_of_(\\d+)$");
+        String[] dirs = null;
+        int shardCount = -1;
+
+        if (listOfFiles != null) {
+            Arrays.sort(listOfFiles);
+            for (File file : listOfFiles) {
+                if (!file.isDirectory()) {
+                    continue;
+                }
+
+                Matcher m = shardPattern.matcher(file.getName());
+                if (!m.find()) {
+                    System.out.println("Warning: ignoring " + file.getName() + " in shards directory");
+                    continue;
+                }
+
+                int i = Integer.parseInt(m.group(1));
+                int n = Integer.parseInt(m.group(2));
+                if (shardCount == -1) {
+                    shardCount = n;
+                    dirs = new String[n + 1];
+                } else if (n != shardCount) {
+                    System.out.println("Error: shards directory has shards from runs with " + shardCount + " and " + n + " shards. Remove the stale shards before merging.");
+                    System.exit(1);
+                }
+
+                if ((i < 1) || (i > n)) {
+                    System.out.println("Error: bad shard directory " + file.getName());
+                    System.exit(1);
+                }
+
+                if (!new File(file.getPath() + File.separator + "OverallStats.ser").exists()) {
+                    System.out.println("Error: shard " + file.getName() + " is incomplete. Re-run it before merging.");
+                    System.exit(1);
+                }
+
+                dirs[i] = file.getPath();
+            }
+        }
+
+        for (int i=1; i<=shardCount; i++) {
+            if (dirs[i] == null) {
+                System.out.println("Error: shard_" + i + "_of_" + shardCount + " is missing. Run it before merging.");
+                System.exit(1);
+            }
+            shardDirs.add(dirs[i]);
+        }
+
+        Hashtable<String,Integer> sizes = options.getReferences().readSizes();
+        for (int i=0; i<shardDirs.size(); i++) {
+            checkReferences(shardDirs.get(i), loadShard(shardDirs.get(i)).getStatsByType(0).getOptions().getReferences(), sizes);
+        }
+
+        return shardDirs.size();
+    }
+
+    /**
+     * Check a shard was analysed against the same reference sequences, with
+     * the same sizes, as this merge.
+     * @param dir shard directory
+     * @param shardReferences references of shard
+     * @param sizes sizes of references of this merge, indexed by ID
+     */
+    private void checkReferences(String dir, References shardReferences, Hashtable<String,Integer> sizes) {
+        boolean matches = shardReferences.getAllIds().equals(sizes.keySet());
+
+        if (matches) {
+            for (String id : sizes.keySet()) {
+                if (shardReferences.getReferenceById(id).getSize() != sizes.get(id)) {
+                    matches = false;
+                    break;
+                }
+            }
+        }
+
+        if (!matches) {
+            System.out.println("Error: shard " + new File(dir).getName() + " was analysed against different references. Re-run it before merging.");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Load one shard's stats.
+     * @param dir shard directory
+     * @return OverallStats object
+     */
+    private OverallStats loadShard(String dir) {
+        OverallStats os = null;
+
+        try {
+            ObjectInputStream ois = new ObjectInputStream(new FileInputStream(dir + File.separator + "OverallStats.ser"));
+            os = (OverallStats)ois.readObject();
+            ois.close();
+        } catch (Exception e) {
+            if (e instanceof InvalidClassException) {
+                System.out.println("The shard data in " + dir + " is incompatible with this version of NanoOK. You must re-run all shards before running merge.");
+            } else {
+                System.out.println("Exception trying to read object:");
+                e.printStackTrace();
+            }
+            System.exit(1);
+        }
+
+        return os;
+    }
+
+    /**
+     * Append a shard's per-read text file to the merged file.
+     * @param from shard file
+     * @param to merged file
+     * @param skipLines number of header lines to skip
+     */
+    private void appendFile(String from, String to, int skipLines) {
+        if (!new File(from).exists()) {
+            return;
+        }
+
+        try {
+            BufferedReader br = new BufferedReader(new FileReader(from));
+            PrintWriter pw = new PrintWriter(new FileWriter(to, true));
+            String line;
+            int n = 0;
+
+            while ((line = br.readLine()) != null) {
+                if (n++ >= skipLines) {
+                    pw.println(line);
+                }
+            }
+
+            pw.close();
+            br.close();
+        } catch (IOException e) {
+            System.out.println("appendFile exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Append all of a shard's per-read files for one type.
+     * @param dir shard directory
+     * @param type read type
+     */
+    private void appendReadFiles(String dir, int type) {
+        String typeString = NanoOKOptions.getTypeFromInt(type);
+        String analysisDir = options.getAnalysisDir();
+
+        appendFile(dir + File.separator + "all_" + typeString + "_lengths.txt", analysisDir + File.separator + "all_" + typeString + "_lengths.txt", 0);
+        appendFile(dir + File.separator + "all_" + typeString + "_kmers.txt", analysisDir + File.separator + "all_" + typeString + "_kmers.txt", 1);
+        appendFile(dir + File.separator + "Unaligned" + File.separator + typeString + "_nonaligned.txt", analysisDir + File.separator + "Unaligned" + File.separator + typeString + "_nonaligned.txt", 1);
+
+        for (String id : options.getReferences().getAllIds()) {
+            String name = options.getReferences().getReferenceById(id).getName() + File.separator + options.getReferences().getReferenceById(id).getName() + "_" + typeString + "_alignments.txt";
+            appendFile(dir + File.separator + name, analysisDir + File.separator + name, 1);
+        }
+    }
+
+    /**
+     * Merge all shards. Per-read files are concatenated and stats summed.
+     */
+    public void merge() {
+        for (int type=0; type<3; type++) {
+            if (options.isProcessingReadType(type)) {
+                overallStats.getStatsByType(type).openLengthsFile();
+                overallStats.getStatsByType(type).closeLengthsFile();
+                overallStats.getStatsByType(type).closeKmersFile();
+                new AlignmentsTableFile(options.getAnalysisDir() + File.separator + "Unaligned" + File.separator + NanoOKOptions.getTypeFromInt(type) + "_nonaligned.txt");
+            }
+        }
+
+        for (int i=0; i<shardDirs.size(); i++) {
+            String dir = shardDirs.get(i);
+            System.out.println("Merging " + new File(dir).getName());
+            OverallStats shard = loadShard(dir);
+            References shardReferences = shard.getStatsByType(0).getOptions().getReferences();
+
+            for (int type=0; type<3; type++) {
+                if (options.isProcessingReadType(type)) {
+                    overallStats.getStatsByType(type).merge(shard.getStatsByType(type));
+                    for (String id : options.getReferences().getAllIds()) {
+                        options.getReferences().getReferenceById(id).getStatsByType(type).merge(shardReferences.getReferenceById(id).getStatsByType(type));
+                    }
+                    appendReadFiles(dir, type);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get number of shards found.
+     * @return number of shards
+     */
+    public int getNumberOfShards() {
+        return shardDirs.size();
+    }
+}